@@ -0,0 +1,451 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/** Writes the files of a commit to a tar or zip archive straight from the
+ *  object store, without touching the working directory.  A tar holds the
+ *  files as they are, so blob files and chunks are moved into it with
+ *  FileChannel.transferTo and never enter the heap.  For a zip, blobs are
+ *  read and deflated across all cores in the common ForkJoin pool, a batch
+ *  at a time, and the next batch is prepared while the previous one is
+ *  written, so compression overlaps with output.  A batch holds at most
+ *  BATCH_BYTES of blob contents, which bounds memory; a chunked blob is
+ *  never held whole but deflated a chunk at a time by the writer.  Files
+ *  are written in order of name, so the archive does not depend on the
+ *  number of cores.  Zip entries are written by hand, since
+ *  ZipOutputStream can only compress as it writes.
+ *  @author Daniel Ngo
+ */
+class Archive {
+
+    /** Most blob bytes prepared per batch. */
+    static final long BATCH_BYTES = 1 << 25;
+    /** Most files prepared per batch. */
+    static final int BATCH_SIZE = 1024;
+
+    /** Size of a tar block. */
+    private static final int BLOCK = 512;
+    /** Mode given to every file. */
+    private static final int MODE = 0644;
+    /** Zip signatures. */
+    private static final int LOCAL_HEADER = 0x04034b50,
+        DATA_DESCRIPTOR = 0x08074b50, CENTRAL_HEADER = 0x02014b50,
+        END_OF_CENTRAL = 0x06054b50;
+    /** Zip flags: sizes follow the data, and names are UTF-8. */
+    private static final int ZIP_FLAGS = 1 << 3 | 1 << 11;
+    /** Zip version 2.0, the first with deflate, made on Unix. */
+    private static final int ZIP_VERSION = 20, ZIP_MADE_BY = 3 << 8 | 20;
+    /** Zip method number of deflate. */
+    private static final int DEFLATED = 8;
+    /** Largest size or count zip holds without the zip64 extensions. */
+    private static final long ZIP_LIMIT = 0xffffffffL;
+
+    /** One file of the archive. */
+    private static final class Entry {
+        /** The file NAME, whose blob is the file BLOB. */
+        Entry(String name, File blob) {
+            _name = name;
+            _blob = blob;
+        }
+
+        /** Name of the file. */
+        private final String _name;
+        /** The blob file. */
+        private final File _blob;
+        /** The deflated contents, for zip, or null if the blob is
+         *  chunked and deflated by the writer. */
+        private byte[] _data;
+        /** Size of the contents and, for zip, of the deflated data. */
+        private long _size, _compressed;
+        /** CRC-32 of the contents, for zip. */
+        private int _crc;
+        /** Offset of the zip local header. */
+        private long _offset;
+    }
+
+    /** An archive of the files of COMMIT, written to OUT as a zip if ZIP,
+     *  or else as a tar. */
+    Archive(Commit commit, File out, boolean zip) {
+        _out = out;
+        _zip = zip;
+        _time = commit.getTime();
+        _dostime = dosTime(_time);
+        for (Map.Entry<String, ObjectId> e : commit.getBlob().entrySet()) {
+            _entries.add(new Entry(e.getKey(),
+                    Utils.join(Blobs.BLOB_FOLDER, e.getValue().name())));
+        }
+        _entries.sort(Comparator.comparing(entry -> entry._name));
+        Promisor.prefetch(commit.getFiles().blobs());
+    }
+
+    /** Write the archive. */
+    void write() {
+        List<List<Entry>> batches = batches();
+        try (FileChannel out = FileChannel.open(_out.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            _channel = out;
+            CompletableFuture<Void> next = batches.isEmpty() ? null
+                : prepare(batches.get(0));
+            for (int i = 0; i < batches.size(); i += 1) {
+                next.join();
+                next = i + 1 < batches.size() ? prepare(batches.get(i + 1))
+                    : null;
+                for (Entry entry : batches.get(i)) {
+                    if (_zip) {
+                        writeZipEntry(entry);
+                    } else {
+                        writeTarEntry(entry);
+                    }
+                    entry._data = null;
+                }
+            }
+            if (_zip) {
+                writeCentralDirectory();
+            } else {
+                write(new byte[2 * BLOCK]);
+            }
+            flush();
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write %s: %s", _out.getName(),
+                    excp.getMessage());
+        }
+    }
+
+    /** Return the entries split into batches of at most BATCH_SIZE files
+     *  and BATCH_BYTES blob bytes, or one file if it alone is larger. */
+    private List<List<Entry>> batches() {
+        List<List<Entry>> result = new ArrayList<>();
+        int start = 0;
+        long bytes = 0;
+        for (int i = 0; i < _entries.size(); i += 1) {
+            long size = _entries.get(i)._blob.length();
+            if (i > start && (i - start == BATCH_SIZE
+                              || bytes + size > BATCH_BYTES)) {
+                result.add(_entries.subList(start, i));
+                start = i;
+                bytes = 0;
+            }
+            bytes += size;
+        }
+        if (start < _entries.size()) {
+            result.add(_entries.subList(start, _entries.size()));
+        }
+        return result;
+    }
+
+    /** Start preparing the entries of BATCH in parallel, and return the
+     *  result, which completes when they are ready. */
+    private CompletableFuture<Void> prepare(List<Entry> batch) {
+        return CompletableFuture.runAsync(() ->
+                batch.parallelStream().forEach(this::prepare));
+    }
+
+    /** Find the size of ENTRY and, if the archive is a zip, read and
+     *  deflate its blob unless it is chunked. */
+    private void prepare(Entry entry) {
+        if (ChunkStore.isManifest(entry._blob)) {
+            entry._size = ChunkStore.logicalSize(
+                    Utils.readContents(entry._blob));
+            return;
+        } else if (!_zip) {
+            entry._size = entry._blob.length();
+            return;
+        }
+        byte[] contents = Utils.readContents(entry._blob);
+        entry._size = contents.length;
+        CRC32 crc = new CRC32();
+        crc.update(contents);
+        entry._crc = (int) crc.getValue();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream(
+                contents.length / 2 + 64);
+        deflater.setInput(contents);
+        deflater.finish();
+        byte[] buffer = new byte[1 << 16];
+        while (!deflater.finished()) {
+            deflated.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        entry._data = deflated.toByteArray();
+        entry._compressed = entry._data.length;
+    }
+
+    /** Return the chunk files of the chunked blob of ENTRY, in order. */
+    private static List<File> chunks(Entry entry) {
+        List<File> result = new ArrayList<>();
+        for (String id : ChunkStore.chunks(Utils.readContents(entry._blob))) {
+            result.add(Utils.join(ChunkStore.CHUNK_FOLDER, id));
+        }
+        return result;
+    }
+
+    /** Write ENTRY as a tar header and its contents, padded to a whole
+     *  block.  A name too long for the header goes in a pax extended
+     *  header before it. */
+    private void writeTarEntry(Entry entry) throws IOException {
+        byte[] name = entry._name.getBytes(StandardCharsets.UTF_8);
+        if (name.length > 100) {
+            byte[] record = paxRecord("path", entry._name);
+            write(tarHeader("././@PaxHeader".getBytes(StandardCharsets.UTF_8),
+                    record.length, 'x'));
+            write(record);
+            pad(record.length);
+        }
+        write(tarHeader(name, entry._size, '0'));
+        if (ChunkStore.isManifest(entry._blob)) {
+            for (File chunk : chunks(entry)) {
+                transfer(chunk);
+            }
+        } else {
+            transfer(entry._blob);
+        }
+        pad(entry._size);
+    }
+
+    /** Return a ustar header for the file NAME, truncated to 100 bytes,
+     *  of SIZE bytes and of type TYPE. */
+    private byte[] tarHeader(byte[] name, long size, char type) {
+        byte[] header = new byte[BLOCK];
+        System.arraycopy(name, 0, header, 0, Math.min(name.length, 100));
+        octal(header, 100, 8, MODE);
+        octal(header, 108, 8, 0);
+        octal(header, 116, 8, 0);
+        octal(header, 124, 12, size);
+        octal(header, 136, 12, _time / 1000);
+        for (int i = 148; i < 156; i += 1) {
+            header[i] = ' ';
+        }
+        header[156] = (byte) type;
+        byte[] magic = "ustar\00000".getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(magic, 0, header, 257, magic.length);
+        long sum = 0;
+        for (byte b : header) {
+            sum += b & 0xff;
+        }
+        octal(header, 148, 7, sum);
+        return header;
+    }
+
+    /** Return the pax record setting KEY to VALUE: its length in bytes,
+     *  itself included, then a space, KEY=VALUE and a newline. */
+    private static byte[] paxRecord(String key, String value) {
+        int body = (" " + key + "=" + value + "\n")
+            .getBytes(StandardCharsets.UTF_8).length;
+        int length = body + 1;
+        while (length != body + Integer.toString(length).length()) {
+            length = body + Integer.toString(length).length();
+        }
+        return (length + " " + key + "=" + value + "\n")
+            .getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Put VALUE in HEADER as LENGTH - 1 octal digits and a NUL, from
+     *  POS. */
+    private static void octal(byte[] header, int pos, int length,
+                              long value) {
+        String digits = String.format("%0" + (length - 1) + "o", value);
+        if (digits.length() >= length) {
+            throw Utils.error("Value too large for tar: %d", value);
+        }
+        for (int i = 0; i < digits.length(); i += 1) {
+            header[pos + i] = (byte) digits.charAt(i);
+        }
+        header[pos + length - 1] = 0;
+    }
+
+    /** Write the zeros that pad SIZE bytes out to a whole tar block. */
+    private void pad(long size) throws IOException {
+        int rest = (int) (size % BLOCK);
+        if (rest != 0) {
+            write(new byte[BLOCK - rest]);
+        }
+    }
+
+    /** Write ENTRY as a zip local header, its deflated contents, and a
+     *  data descriptor.  A chunked blob is deflated here, a chunk at a
+     *  time. */
+    private void writeZipEntry(Entry entry) throws IOException {
+        if (_entries.size() > 0xffff || _written > ZIP_LIMIT) {
+            throw Utils.error("Archive too large for zip.");
+        }
+        byte[] name = entry._name.getBytes(StandardCharsets.UTF_8);
+        entry._offset = _written;
+        writeLE(LOCAL_HEADER, 4);
+        writeLE(ZIP_VERSION, 2);
+        writeLE(ZIP_FLAGS, 2);
+        writeLE(DEFLATED, 2);
+        writeLE(_dostime, 4);
+        writeLE(0, 12);
+        writeLE(name.length, 2);
+        writeLE(0, 2);
+        write(name);
+        if (entry._data != null) {
+            write(entry._data);
+        } else {
+            deflateChunks(entry);
+        }
+        if (entry._size > ZIP_LIMIT || entry._compressed > ZIP_LIMIT) {
+            throw Utils.error("Archive too large for zip.");
+        }
+        writeLE(DATA_DESCRIPTOR, 4);
+        writeLE(entry._crc, 4);
+        writeLE(entry._compressed, 4);
+        writeLE(entry._size, 4);
+    }
+
+    /** Deflate the chunks of the chunked blob of ENTRY to the archive,
+     *  setting its CRC and deflated size. */
+    private void deflateChunks(Entry entry) throws IOException {
+        CRC32 crc = new CRC32();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        byte[] buffer = new byte[1 << 16];
+        long start = _written;
+        for (File chunk : chunks(entry)) {
+            byte[] contents = Utils.readContents(chunk);
+            crc.update(contents);
+            deflater.setInput(contents);
+            while (!deflater.needsInput()) {
+                write(buffer, deflater.deflate(buffer));
+            }
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            write(buffer, deflater.deflate(buffer));
+        }
+        deflater.end();
+        entry._crc = (int) crc.getValue();
+        entry._compressed = _written - start;
+    }
+
+    /** Write the zip central directory and its end record. */
+    private void writeCentralDirectory() throws IOException {
+        long start = _written;
+        for (Entry entry : _entries) {
+            byte[] name = entry._name.getBytes(StandardCharsets.UTF_8);
+            writeLE(CENTRAL_HEADER, 4);
+            writeLE(ZIP_MADE_BY, 2);
+            writeLE(ZIP_VERSION, 2);
+            writeLE(ZIP_FLAGS, 2);
+            writeLE(DEFLATED, 2);
+            writeLE(_dostime, 4);
+            writeLE(entry._crc, 4);
+            writeLE(entry._compressed, 4);
+            writeLE(entry._size, 4);
+            writeLE(name.length, 2);
+            writeLE(0, 8);
+            writeLE((0100000L | MODE) << 16, 4);
+            writeLE(entry._offset, 4);
+            write(name);
+        }
+        long size = _written - start;
+        if (_written > ZIP_LIMIT) {
+            throw Utils.error("Archive too large for zip.");
+        }
+        writeLE(END_OF_CENTRAL, 4);
+        writeLE(0, 4);
+        writeLE(_entries.size(), 2);
+        writeLE(_entries.size(), 2);
+        writeLE(size, 4);
+        writeLE(start, 4);
+        writeLE(0, 2);
+    }
+
+    /** Return TIME, in milliseconds since the epoch, in MS-DOS form: the
+     *  local date in the high 16 bits and the time, to two seconds, in the
+     *  low. */
+    private static long dosTime(long time) {
+        LocalDateTime t = LocalDateTime.ofInstant(
+                Instant.ofEpochMilli(time), ZoneId.systemDefault());
+        if (t.getYear() < 1980) {
+            t = LocalDateTime.of(1980, 1, 1, 0, 0);
+        }
+        return (long) (t.getYear() - 1980) << 25 | t.getMonthValue() << 21
+            | t.getDayOfMonth() << 16 | t.getHour() << 11
+            | t.getMinute() << 5 | t.getSecond() >> 1;
+    }
+
+    /** Write the low LENGTH bytes of VALUE, least significant first. */
+    private void writeLE(long value, int length) throws IOException {
+        for (int i = 0; i < length; i += 1) {
+            if (!_buffer.hasRemaining()) {
+                flush();
+            }
+            _buffer.put(i < 8 ? (byte) (value >>> (8 * i)) : 0);
+        }
+        _written += length;
+    }
+
+    /** Write BYTES. */
+    private void write(byte[] bytes) throws IOException {
+        write(bytes, bytes.length);
+    }
+
+    /** Write the first LENGTH of BYTES. */
+    private void write(byte[] bytes, int length) throws IOException {
+        for (int pos = 0; pos < length;) {
+            if (!_buffer.hasRemaining()) {
+                flush();
+            }
+            int n = Math.min(length - pos, _buffer.remaining());
+            _buffer.put(bytes, pos, n);
+            pos += n;
+        }
+        _written += length;
+    }
+
+    /** Write the contents of FILE, moved from file to file. */
+    private void transfer(File file) throws IOException {
+        flush();
+        try (FileChannel in = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            long size = in.size();
+            for (long pos = 0; pos < size;) {
+                pos += in.transferTo(pos, size - pos, _channel);
+            }
+            _written += size;
+        }
+    }
+
+    /** Write out what _buffer holds. */
+    private void flush() throws IOException {
+        _buffer.flip();
+        while (_buffer.hasRemaining()) {
+            _channel.write(_buffer);
+        }
+        _buffer.clear();
+    }
+
+    /** The archive file. */
+    private final File _out;
+    /** True iff the archive is a zip rather than a tar. */
+    private final boolean _zip;
+    /** Time of the commit, in milliseconds since the epoch. */
+    private final long _time;
+    /** The same, in MS-DOS form for zip. */
+    private final long _dostime;
+    /** The files, in order of name. */
+    private final List<Entry> _entries = new ArrayList<>();
+    /** The archive being written. */
+    private FileChannel _channel;
+    /** Bytes waiting to be written to _channel. */
+    private final ByteBuffer _buffer = ByteBuffer.allocate(1 << 16);
+    /** Number of bytes written so far. */
+    private long _written;
+}
@@ -0,0 +1,321 @@
+package gitlet;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.IntConsumer;
+import java.util.function.LongBinaryOperator;
+
+/** An immutable, compressed set of non-negative ints, in the style of an
+ *  EWAH bitmap.  The bits are grouped into 64-bit words, and runs of words
+ *  that are all zeros or all ones are stored as a count rather than
+ *  word by word.  The encoding is a sequence of marker words, each followed
+ *  by the literal (mixed) words it announces.  A marker holds the value of
+ *  its run in bit 0, the run length in words in bits 1-32, and the number
+ *  of literal words that follow in bits 33-63.  Set operations work on
+ *  the compressed form, a whole run at a time.
+ *  @author Daniel Ngo
+ */
+class Bitmap implements Serializable {
+
+    /** The empty bitmap. */
+    static final Bitmap EMPTY = new Bitmap(new long[0]);
+
+    /** Mask for the run length and literal count fields of a marker. */
+    private static final long RUN_MASK = 0xffffffffL,
+        LITERAL_MASK = 0x7fffffffL;
+
+    /** A bitmap whose encoded words are WORDS. */
+    private Bitmap(long[] words) {
+        _words = words;
+    }
+
+    /** Return a bitmap holding the bits set in BITS. */
+    static Bitmap of(BitSet bits) {
+        Builder result = new Builder();
+        for (long word : bits.toLongArray()) {
+            result.add(word);
+        }
+        return result.build();
+    }
+
+    /** Return a bitmap of the bits in this one or OTHER. */
+    Bitmap or(Bitmap other) {
+        return combine(other, (a, b) -> a | b);
+    }
+
+    /** Return a bitmap of the bits in both this one and OTHER. */
+    Bitmap and(Bitmap other) {
+        return combine(other, (a, b) -> a & b);
+    }
+
+    /** Return a bitmap of the bits in this one but not in OTHER. */
+    Bitmap andNot(Bitmap other) {
+        return combine(other, (a, b) -> a & ~b);
+    }
+
+    /** Return true iff bit POS is set. */
+    boolean get(int pos) {
+        long target = pos >>> 6;
+        Cursor cursor = new Cursor(this);
+        while (!cursor.done()) {
+            long length = cursor.length();
+            if (target < length) {
+                long word = cursor.inRun() ? (cursor.runBit() ? -1L : 0L)
+                    : cursor.literal();
+                return ((word >>> (pos & 63)) & 1) != 0;
+            }
+            target -= length;
+            cursor.skip(length);
+        }
+        return false;
+    }
+
+    /** Return the number of bits set. */
+    int cardinality() {
+        int result = 0;
+        Cursor cursor = new Cursor(this);
+        while (!cursor.done()) {
+            long length = cursor.length();
+            if (cursor.inRun()) {
+                result += cursor.runBit() ? 64 * length : 0;
+            } else {
+                result += Long.bitCount(cursor.literal());
+            }
+            cursor.skip(length);
+        }
+        return result;
+    }
+
+    /** Call ACTION on each set bit, in increasing order. */
+    void forEach(IntConsumer action) {
+        Cursor cursor = new Cursor(this);
+        long base = 0;
+        while (!cursor.done()) {
+            long length = cursor.length();
+            if (cursor.inRun()) {
+                if (cursor.runBit()) {
+                    for (long i = base * 64; i < (base + length) * 64; i += 1) {
+                        action.accept((int) i);
+                    }
+                }
+            } else {
+                long word = cursor.literal();
+                while (word != 0) {
+                    action.accept((int) (base * 64
+                            + Long.numberOfTrailingZeros(word)));
+                    word &= word - 1;
+                }
+            }
+            base += length;
+            cursor.skip(length);
+        }
+    }
+
+    /** Set the bits of this bitmap in BITS. */
+    void orInto(BitSet bits) {
+        forEach(bits::set);
+    }
+
+    /** Return the number of 64-bit words in the encoding. */
+    int encodedWords() {
+        return _words.length;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof Bitmap
+            && Arrays.equals(_words, ((Bitmap) obj)._words);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(_words);
+    }
+
+    /** Return the result of applying OP word by word to this and OTHER. */
+    private Bitmap combine(Bitmap other, LongBinaryOperator op) {
+        Builder result = new Builder();
+        Cursor a = new Cursor(this), b = new Cursor(other);
+        while (!a.done() || !b.done()) {
+            if (a.inRun() && b.inRun()) {
+                long n = Math.min(a.length(), b.length());
+                long word = op.applyAsLong(a.runBit() ? -1L : 0L,
+                        b.runBit() ? -1L : 0L);
+                result.addRun(word != 0, n);
+                a.skip(n);
+                b.skip(n);
+            } else {
+                long x = a.inRun() ? (a.runBit() ? -1L : 0L) : a.literal();
+                long y = b.inRun() ? (b.runBit() ? -1L : 0L) : b.literal();
+                result.add(op.applyAsLong(x, y));
+                a.skip(1);
+                b.skip(1);
+            }
+        }
+        return result.build();
+    }
+
+    /** Builds a bitmap one word at a time. */
+    static class Builder {
+        /** Append the 64 bits of WORD. */
+        void add(long word) {
+            if (word == 0 || word == -1L) {
+                addRun(word != 0, 1);
+                return;
+            }
+            if (_marker < 0 || literals() == LITERAL_MASK) {
+                newMarker(false, 0);
+            }
+            push(word);
+            _words[_marker] += 1L << 33;
+        }
+
+        /** Append N words that are all ones if BIT, else all zeros. */
+        void addRun(boolean bit, long n) {
+            while (n > 0) {
+                if (_marker < 0 || literals() != 0
+                        || (runLength() != 0 && runBit() != bit)
+                        || runLength() == RUN_MASK) {
+                    newMarker(bit, 0);
+                }
+                long room = Math.min(n, RUN_MASK - runLength());
+                _words[_marker] = ((_words[_marker] & ~1L) + (room << 1))
+                    | (bit ? 1 : 0);
+                n -= room;
+            }
+        }
+
+        /** Return the finished bitmap, without trailing zero runs. */
+        Bitmap build() {
+            if (_marker >= 0 && literals() == 0 && !runBit()) {
+                _size = _marker;
+            }
+            return new Bitmap(Arrays.copyOf(_words, _size));
+        }
+
+        /** Start a new marker whose run is of BIT and LENGTH words. */
+        private void newMarker(boolean bit, long length) {
+            _marker = _size;
+            push((length << 1) | (bit ? 1 : 0));
+        }
+
+        /** Append WORD to the encoding. */
+        private void push(long word) {
+            if (_size == _words.length) {
+                _words = Arrays.copyOf(_words, _size * 2);
+            }
+            _words[_size] = word;
+            _size += 1;
+        }
+
+        /** Return the run length of the current marker. */
+        private long runLength() {
+            return (_words[_marker] >>> 1) & RUN_MASK;
+        }
+
+        /** Return the run bit of the current marker. */
+        private boolean runBit() {
+            return (_words[_marker] & 1) != 0;
+        }
+
+        /** Return the literal count of the current marker. */
+        private long literals() {
+            return _words[_marker] >>> 33;
+        }
+
+        /** The encoding so far; only the first _size words are used. */
+        private long[] _words = new long[4];
+        /** Number of words used. */
+        private int _size;
+        /** Position of the current marker, or -1 if none. */
+        private int _marker = -1;
+    }
+
+    /** A position in the encoding of a bitmap.  Past the end, a cursor is
+     *  in an endless run of zeros. */
+    private static class Cursor {
+        /** A cursor at the start of BITMAP. */
+        Cursor(Bitmap bitmap) {
+            _words = bitmap._words;
+            load(0);
+        }
+
+        /** Return true iff there are no more words. */
+        boolean done() {
+            return _pos >= _words.length && _run == 0 && _literals == 0;
+        }
+
+        /** Return true iff the cursor is in a run. */
+        boolean inRun() {
+            return _run > 0 || done();
+        }
+
+        /** Return the value of the current run. */
+        boolean runBit() {
+            return _bit && !done();
+        }
+
+        /** Return the number of words left in the current run, or 1 if the
+         *  cursor is at a literal word. */
+        long length() {
+            if (done()) {
+                return Long.MAX_VALUE;
+            }
+            return _run > 0 ? _run : 1;
+        }
+
+        /** Return the current literal word. */
+        long literal() {
+            return _words[_pos];
+        }
+
+        /** Move forward N words. */
+        void skip(long n) {
+            while (n > 0 && !done()) {
+                if (_run > 0) {
+                    long k = Math.min(n, _run);
+                    _run -= k;
+                    n -= k;
+                } else if (_literals > 0) {
+                    _pos += 1;
+                    _literals -= 1;
+                    n -= 1;
+                }
+                if (_run == 0 && _literals == 0) {
+                    load(_pos);
+                } else if (_run == 0 && n == 0) {
+                    break;
+                }
+            }
+        }
+
+        /** Read the marker at position POS, skipping empty markers. */
+        private void load(int pos) {
+            _pos = pos;
+            while (_pos < _words.length) {
+                long marker = _words[_pos];
+                _bit = (marker & 1) != 0;
+                _run = (marker >>> 1) & RUN_MASK;
+                _literals = marker >>> 33;
+                _pos += 1;
+                if (_run != 0 || _literals != 0) {
+                    return;
+                }
+            }
+            _run = _literals = 0;
+        }
+
+        /** The encoding being read. */
+        private final long[] _words;
+        /** Position of the next literal word. */
+        private int _pos;
+        /** Value of the current run. */
+        private boolean _bit;
+        /** Words left in the current run, and literals after it. */
+        private long _run, _literals;
+    }
+
+    /** The encoded words. */
+    private final long[] _words;
+}
@@ -0,0 +1,219 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Attributes each line of a file to the commit that last changed it.  The
+ *  walk goes back along first parents, using the CommitGraph to skip
+ *  commits that left the file's blob unchanged, and at each commit that
+ *  did change it diffs the file against its parent's version: lines the
+ *  parent lacks belong to that commit, and the rest are followed further
+ *  back.  The walk stops as soon as every line is attributed.  Finished
+ *  results are kept in .gitlet/blame-cache under the commit that last
+ *  changed the file and its name, since the blame of the file in any
+ *  commit is that of the file where it last changed, and a walk that
+ *  reaches a cached commit takes the rest from there.  A blob id would not
+ *  do as the key: the same contents can come back later in history with
+ *  different origins.
+ *  @author Daniel Ngo
+ */
+class Blame {
+
+    /** Directory of cached results, one file per commit and file name,
+     *  holding the id of the commit of each line of the file, one per
+     *  line. */
+    static final File CACHE_FOLDER = Utils.join(Main.GITLET_FOLDER,
+            "blame-cache");
+
+    /** A blame of the file named PATH as of the commit with id START. */
+    Blame(ObjectId start, String path) {
+        _start = start;
+        _path = path;
+    }
+
+    /** Return the id of the commit that last changed each line of the
+     *  file, in line order.  The file must exist in the starting
+     *  commit. */
+    ObjectId[] run() {
+        ObjectId blob = ObjectCache.readCommit(_start).getBlob().get(_path);
+        _lines = lines(blob);
+        CommitGraph graph = CommitGraph.load();
+        ObjectId top = lastChange(graph, _start);
+        ObjectId[] result = readCache(top);
+        if (result != null) {
+            graph.save();
+            return result;
+        }
+        result = new ObjectId[_lines.size()];
+        int[] origin = new int[_lines.size()];
+        for (int i = 0; i < origin.length; i += 1) {
+            origin[i] = i;
+        }
+        int left = origin.length;
+        List<String> current = _lines;
+        ObjectId id = top;
+        while (left > 0) {
+            ObjectId[] cached = id.equals(top) ? null : readCache(id);
+            if (cached != null) {
+                for (int i = 0; i < origin.length; i += 1) {
+                    if (origin[i] >= 0) {
+                        result[origin[i]] = cached[i];
+                    }
+                }
+                break;
+            }
+            ObjectId parent = graph.parent(id);
+            ObjectId parentblob = parent == null ? null
+                : ObjectCache.readCommit(parent).getBlob().get(_path);
+            List<String> older = lines(parentblob);
+            int[] olderorigin = new int[older.size()];
+            Arrays.fill(olderorigin, -1);
+            boolean[] kept = new boolean[current.size()];
+            int[] neworigin = origin;
+            match(current, older, (i, j) -> {
+                kept[i] = true;
+                olderorigin[j] = neworigin[i];
+            });
+            for (int i = 0; i < kept.length; i += 1) {
+                if (!kept[i] && origin[i] >= 0) {
+                    result[origin[i]] = id;
+                    left -= 1;
+                }
+            }
+            current = older;
+            origin = olderorigin;
+            id = left > 0 ? lastChange(graph, parent) : null;
+        }
+        graph.save();
+        writeCache(top, result);
+        return result;
+    }
+
+    /** Return the last commit, following first parents back from the
+     *  commit with id ID, that changed the file, according to GRAPH. */
+    private ObjectId lastChange(CommitGraph graph, ObjectId id) {
+        while (!graph.changes(id, _path)) {
+            id = graph.parent(id);
+        }
+        return id;
+    }
+
+    /** Return the lines of the file as of the starting commit, valid after
+     *  run. */
+    List<String> lines() {
+        return _lines;
+    }
+
+    /** Receives the pairs of matching lines found by match. */
+    private interface Matches {
+        /** Line I of the newer version is line J of the older one. */
+        void accept(int i, int j);
+    }
+
+    /** Report to OUT each line of NEWER that is kept from OLDER, as found
+     *  by a longest common subsequence.  Lines shared at the start and end
+     *  are matched directly, so the quadratic Diff only sees the part that
+     *  changed. */
+    private static void match(List<String> newer, List<String> older,
+                              Matches out) {
+        int n = newer.size(), m = older.size();
+        int prefix = 0;
+        while (prefix < n && prefix < m
+               && newer.get(prefix).equals(older.get(prefix))) {
+            out.accept(prefix, prefix);
+            prefix += 1;
+        }
+        int suffix = 0;
+        while (suffix < n - prefix && suffix < m - prefix
+               && newer.get(n - 1 - suffix)
+                   .equals(older.get(m - 1 - suffix))) {
+            out.accept(n - 1 - suffix, m - 1 - suffix);
+            suffix += 1;
+        }
+        if (prefix + suffix == n || prefix + suffix == m) {
+            return;
+        }
+        Diff diff = new Diff();
+        diff.setSequences(newer.subList(prefix, n - suffix),
+                older.subList(prefix, m - suffix));
+        int[] common = diff.commonSubsequence();
+        for (int k = 0; k < common.length; k += 3) {
+            for (int j = 0; j < common[k + 2]; j += 1) {
+                out.accept(prefix + common[k] + j,
+                        prefix + common[k + 1] + j);
+            }
+        }
+    }
+
+    /** Return the lines of the blob with id BLOB, or none if BLOB is
+     *  null. */
+    private static List<String> lines(ObjectId blob) {
+        if (blob == null) {
+            return List.of();
+        }
+        String content = ObjectCache.readBlob(blob);
+        if (content.isEmpty()) {
+            return List.of();
+        }
+        List<String> result = new ArrayList<>(
+                Arrays.asList(content.split("\n", -1)));
+        if (content.endsWith("\n")) {
+            result.remove(result.size() - 1);
+        }
+        return result;
+    }
+
+    /** Return the cached result for the file as of the commit with id
+     *  COMMIT, or null. */
+    private ObjectId[] readCache(ObjectId commit) {
+        File file = cacheFile(commit);
+        if (!file.isFile()) {
+            return null;
+        }
+        String contents = Utils.readContentsAsString(file);
+        String[] lines = contents.isEmpty() ? new String[0]
+            : contents.split("\n");
+        ObjectId[] result = new ObjectId[lines.length];
+        for (int i = 0; i < lines.length; i += 1) {
+            result[i] = ObjectId.parse(lines[i]);
+            if (result[i] == null) {
+                return null;
+            }
+        }
+        return result;
+    }
+
+    /** Cache RESULT as the blame of the file as of the commit with id
+     *  COMMIT, unless another process holds the repository's write lock. */
+    private void writeCache(ObjectId commit, ObjectId[] result) {
+        if (!RepoLock.tryAcquire()) {
+            return;
+        }
+        try {
+            CACHE_FOLDER.mkdirs();
+            StringBuilder contents = new StringBuilder();
+            for (ObjectId id : result) {
+                contents.append(id.name()).append('\n');
+            }
+            Utils.replaceContents(cacheFile(commit), contents.toString());
+        } finally {
+            RepoLock.release();
+        }
+    }
+
+    /** Return the cache file of the file as of the commit with id
+     *  COMMIT, named by a hash of the commit id and the file name. */
+    private File cacheFile(ObjectId commit) {
+        return Utils.join(CACHE_FOLDER,
+                Hashing.id(commit.name(), "\0", _path).name());
+    }
+
+    /** Id of the commit the blame starts from. */
+    private final ObjectId _start;
+    /** Name of the file blamed. */
+    private final String _path;
+    /** Lines of the file in the starting commit. */
+    private List<String> _lines;
+}
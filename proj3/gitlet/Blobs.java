@@ -11,12 +11,12 @@ public class Blobs implements Serializable {
     /** Contents of the blob. */
     private String content;
     /** Hash ID of the blob. */
-    private String id;
+    private ObjectId id;
 
     public Blobs(String thename, String thecontent) {
         this.name = thename;
         this.content = thecontent;
-        this.id = Utils.sha1(name, content);
+        this.id = Hashing.id(name, content);
     }
 
     public String getName() {
@@ -27,7 +27,7 @@ public class Blobs implements Serializable {
         return this.content;
     }
 
-    public String getId() {
+    public ObjectId getId() {
         return this.id;
     }
 
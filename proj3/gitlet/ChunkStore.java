@@ -0,0 +1,375 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/** Stores large blobs as content-defined chunks.  A file of at least
+ *  THRESHOLD bytes is cut wherever a rolling (gear) hash of the last 64
+ *  bytes has its top 16 bits clear, so an edit only moves the boundaries
+ *  near it and the other chunks are shared with earlier versions.  Each
+ *  chunk is stored once in .gitlet/.chunks under the hash of its bytes,
+ *  and the blob file becomes a manifest listing its chunks.  Small blobs
+ *  are stored whole, as before, so blob ids and old repositories are
+ *  unaffected, except that a small blob that happens to begin with MAGIC
+ *  is chunked too, so that every blob file that begins with MAGIC is a
+ *  manifest.  Working files are stored as their bytes, not as text, and a
+ *  large one is read, hashed and chunked a window at a time (see store),
+ *  so it is never held whole.  Blob files, manifests and chunks are
+ *  written to a temporary file and renamed into place, so a process that
+ *  dies mid-write never leaves a truncated object that later writes,
+ *  which skip objects already present, would take as complete.
+ *  @author Daniel Ngo
+ */
+class ChunkStore {
+
+    /** Directory for all chunks. */
+    static final File CHUNK_FOLDER = Utils.join(Main.GITLET_FOLDER,
+            ".chunks");
+    /** Blobs of at least this many bytes are chunked. */
+    static final int THRESHOLD = Integer.getInteger("gitlet.chunk.threshold",
+            1 << 20);
+    /** True iff writeTo hard-links blobs into the working directory
+     *  rather than copying them. */
+    static final boolean LINK_CHECKOUT =
+        Boolean.getBoolean("gitlet.checkout.link");
+    /** Bounds on chunk sizes. */
+    static final int MIN_CHUNK = 1 << 14, MAX_CHUNK = 1 << 18;
+    /** A boundary falls where these bits of the rolling hash are clear,
+     *  giving chunks of 64K bytes on average. */
+    private static final long BOUNDARY_MASK = 0xffffL << 48;
+    /** First line of a manifest.  No unchunked blob begins with it. */
+    private static final String MAGIC = "\0gitlet-chunks\n";
+    /** Random value for each byte, fixed so that boundaries never change
+     *  between runs. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6769746c6574L);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /** Store CONTENT as the blob file BLOB, chunking it if it is large.
+     *  Only chunks not already stored are written. */
+    static void write(File blob, String content) {
+        write(blob, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Store BYTES as the blob file BLOB, chunking them if they are large
+     *  or could be mistaken for a manifest.  Only chunks not already
+     *  stored are written. */
+    static void write(File blob, byte[] bytes) {
+        if (bytes.length < THRESHOLD && !isManifest(bytes)) {
+            Utils.replaceContents(blob, bytes);
+            return;
+        }
+        StringBuilder manifest = new StringBuilder(MAGIC);
+        int start = 0;
+        for (int end : boundaries(bytes)) {
+            manifest.append(writeChunk(bytes, start, end)).append(' ')
+                .append(end - start).append('\n');
+            start = end;
+        }
+        Utils.replaceContents(blob, manifest.toString());
+    }
+
+    /** Store the working file FILE, named NAME, as a blob unless it is
+     *  already stored, and return the blob's id, which is that of NAME
+     *  followed by the bytes of FILE.  A file of at least THRESHOLD bytes
+     *  is read into a window of MAX_CHUNK bytes at a time, which is hashed
+     *  and cut where boundaries would cut the whole file, so it is never
+     *  held whole. */
+    static ObjectId store(String name, File file) {
+        return store(name, file, true);
+    }
+
+    /** Return the id of the blob store would make of the working file
+     *  FILE, named NAME, without storing anything. */
+    static ObjectId id(String name, File file) {
+        return store(name, file, false);
+    }
+
+    /** As for store(NAME, FILE), but writing nothing unless WRITE. */
+    private static ObjectId store(String name, File file, boolean write) {
+        Hashing.Hasher hasher = Hashing.repository().hasher();
+        hasher.update(name);
+        if (file.length() < THRESHOLD) {
+            byte[] bytes = Utils.readContents(file);
+            hasher.update(bytes, 0, bytes.length);
+            ObjectId id = hasher.finish();
+            File blob = Utils.join(Blobs.BLOB_FOLDER, id.name());
+            if (write && !blob.exists()) {
+                write(blob, bytes);
+            }
+            return id;
+        }
+        StringBuilder manifest = new StringBuilder(MAGIC);
+        byte[] window = new byte[MAX_CHUNK];
+        int size = 0;
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            while (true) {
+                size += in.readNBytes(window, size, window.length - size);
+                if (size == 0) {
+                    break;
+                }
+                int end = cut(window, 0, size);
+                hasher.update(window, 0, end);
+                if (write) {
+                    manifest.append(writeChunk(window, 0, end)).append(' ')
+                        .append(end).append('\n');
+                }
+                System.arraycopy(window, end, window, 0, size - end);
+                size -= end;
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read %s: %s", name, excp.getMessage());
+        }
+        ObjectId id = hasher.finish();
+        File blob = Utils.join(Blobs.BLOB_FOLDER, id.name());
+        if (write && !blob.exists()) {
+            Utils.replaceContents(blob, manifest.toString());
+        }
+        return id;
+    }
+
+    /** Store bytes FROM up to TO of BYTES as a chunk unless it is already
+     *  stored, and return its id. */
+    private static String writeChunk(byte[] bytes, int from, int to) {
+        byte[] chunk = Arrays.copyOfRange(bytes, from, to);
+        String id = Hashing.id((Object) chunk).name();
+        File file = Utils.join(CHUNK_FOLDER, id);
+        if (!file.exists()) {
+            CHUNK_FOLDER.mkdirs();
+            Utils.replaceContents(file, chunk);
+        }
+        return id;
+    }
+
+    /** Return the contents of the blob file BLOB as text, reassembling it
+     *  if it is a manifest. */
+    static String read(File blob) {
+        return new String(readBytes(blob), StandardCharsets.UTF_8);
+    }
+
+    /** Return the bytes of the blob file BLOB, reassembling it if it is a
+     *  manifest. */
+    static byte[] readBytes(File blob) {
+        byte[] bytes = Utils.readContents(blob);
+        if (!isManifest(bytes)) {
+            return bytes;
+        }
+        byte[] result = new byte[(int) logicalSize(bytes)];
+        int pos = 0;
+        for (String id : chunks(bytes)) {
+            byte[] chunk = Utils.readContents(Utils.join(CHUNK_FOLDER, id));
+            System.arraycopy(chunk, 0, result, pos, chunk.length);
+            pos += chunk.length;
+        }
+        return result;
+    }
+
+    /** Return the hash of the contents of the blob with id ID alone,
+     *  without the file name its id covers, so that blobs of different
+     *  files with the same contents get the same hash.  A chunked blob is
+     *  hashed a chunk at a time. */
+    static ObjectId contentId(ObjectId id) {
+        File blob = Utils.join(Blobs.BLOB_FOLDER, id.name());
+        if (!blob.exists()) {
+            Promisor.prefetch(List.of(id));
+        }
+        byte[] bytes = Utils.readContents(blob);
+        Hashing.Hasher hasher = Hashing.repository().hasher();
+        if (!isManifest(bytes)) {
+            hasher.update(bytes, 0, bytes.length);
+            return hasher.finish();
+        }
+        for (String chunk : chunks(bytes)) {
+            byte[] part = Utils.readContents(Utils.join(CHUNK_FOLDER, chunk));
+            hasher.update(part, 0, part.length);
+        }
+        return hasher.finish();
+    }
+
+    /** Write the contents of the blob with id ID to the file TARGET,
+     *  replacing any file there.  Blob files and chunks hold exactly the
+     *  bytes of their contents, so they are moved from file to file by
+     *  FileChannel.transferTo, which the operating system can carry out
+     *  without the bytes entering the heap; a chunked blob is copied a
+     *  chunk at a time.  With LINK_CHECKOUT, an unchunked blob is instead
+     *  hard-linked where the file system allows it. */
+    static void writeTo(ObjectId id, File target) {
+        File blob = Utils.join(Blobs.BLOB_FOLDER, id.name());
+        if (!blob.exists()) {
+            Promisor.prefetch(List.of(id));
+        }
+        try {
+            Files.deleteIfExists(target.toPath());
+            if (!isManifest(blob)) {
+                if (!LINK_CHECKOUT || !link(blob, target)) {
+                    copy(List.of(blob), target);
+                }
+                return;
+            }
+            ArrayList<File> sources = new ArrayList<>();
+            for (String chunk : chunks(Utils.readContents(blob))) {
+                sources.add(Utils.join(CHUNK_FOLDER, chunk));
+            }
+            copy(sources, target);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write %s: %s", target.getName(),
+                    excp.getMessage());
+        }
+    }
+
+    /** Make TARGET a hard link to the blob file BLOB, returning false if
+     *  the file system does not allow it.  The blob is made read-only
+     *  first, so that the working file cannot be edited in place, which
+     *  would change the blob too; it has to be replaced instead, as gitlet
+     *  itself always does. */
+    private static boolean link(File blob, File target) {
+        try {
+            blob.setReadOnly();
+            Files.createLink(target.toPath(), blob.toPath());
+            return true;
+        } catch (IOException | UnsupportedOperationException excp) {
+            return false;
+        }
+    }
+
+    /** Write the bytes of the files SOURCES, one after the other, to the
+     *  new file TARGET. */
+    private static void copy(List<File> sources, File target)
+        throws IOException {
+        try (FileChannel out = FileChannel.open(target.toPath(),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            for (File source : sources) {
+                try (FileChannel in = FileChannel.open(source.toPath(),
+                        StandardOpenOption.READ)) {
+                    long size = in.size();
+                    for (long pos = 0; pos < size;) {
+                        pos += in.transferTo(pos, size - pos, out);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Return true iff the blob file BLOB is a manifest, reading only its
+     *  first few bytes. */
+    static boolean isManifest(File blob) {
+        byte[] head = new byte[MAGIC.length()];
+        try (InputStream in = Files.newInputStream(blob.toPath())) {
+            return in.readNBytes(head, 0, head.length) == head.length
+                && isManifest(head);
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Write a summary of blob storage to OUT: how many blobs are
+     *  chunked, how many bytes the blobs hold and how many are stored, and
+     *  the ratio between the two. */
+    static void report(PrintWriter out) {
+        List<String> blobs = Utils.plainFilenamesIn(Blobs.BLOB_FOLDER);
+        List<String> chunks = Utils.plainFilenamesIn(CHUNK_FOLDER);
+        long logical = 0, stored = 0;
+        int chunked = 0;
+        for (String id : blobs == null ? List.<String>of() : blobs) {
+            File file = Utils.join(Blobs.BLOB_FOLDER, id);
+            stored += file.length();
+            if (isManifest(file)) {
+                chunked += 1;
+                logical += logicalSize(Utils.readContents(file));
+            } else {
+                logical += file.length();
+            }
+        }
+        int chunkcount = chunks == null ? 0 : chunks.size();
+        for (int i = 0; i < chunkcount; i += 1) {
+            stored += Utils.join(CHUNK_FOLDER, chunks.get(i)).length();
+        }
+        out.printf("Blobs: %d (%d chunked), %d chunks.%n",
+                blobs == null ? 0 : blobs.size(), chunked, chunkcount);
+        out.printf("Blob bytes: %d logical, %d stored, dedup ratio %.2f.%n",
+                logical, stored,
+                stored == 0 ? 1.0 : (double) logical / stored);
+    }
+
+    /** Return true iff BYTES, the contents of a blob file, are a
+     *  manifest. */
+    static boolean isManifest(byte[] bytes) {
+        if (bytes.length < MAGIC.length()) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length(); i += 1) {
+            if (bytes[i] != MAGIC.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the ids of the chunks listed in the manifest MANIFEST, in
+     *  order. */
+    static List<String> chunks(byte[] manifest) {
+        ArrayList<String> result = new ArrayList<>();
+        for (String line : entries(manifest)) {
+            result.add(line.substring(0, line.indexOf(' ')));
+        }
+        return result;
+    }
+
+    /** Return the number of bytes in the blob whose manifest is
+     *  MANIFEST. */
+    static long logicalSize(byte[] manifest) {
+        long result = 0;
+        for (String line : entries(manifest)) {
+            result += Long.parseLong(line.substring(line.indexOf(' ') + 1));
+        }
+        return result;
+    }
+
+    /** Return the chunk lines of MANIFEST. */
+    private static List<String> entries(byte[] manifest) {
+        String text = new String(manifest, MAGIC.length(),
+                manifest.length - MAGIC.length(), StandardCharsets.UTF_8);
+        return text.isEmpty() ? List.of() : Arrays.asList(text.split("\n"));
+    }
+
+    /** Return the end offsets of the chunks of BYTES. */
+    static List<Integer> boundaries(byte[] bytes) {
+        ArrayList<Integer> result = new ArrayList<>();
+        for (int start = 0; start < bytes.length;) {
+            start = cut(bytes, start, bytes.length);
+            result.add(start);
+        }
+        return result;
+    }
+
+    /** Return the end offset of the chunk that starts at START among the
+     *  first LENGTH bytes of BYTES.  It depends only on the bytes of the
+     *  chunk, and LENGTH need only reach MAX_CHUNK bytes past START. */
+    private static int cut(byte[] bytes, int start, int length) {
+        int end = Math.min(start + MAX_CHUNK, length);
+        int pos = Math.min(start + MIN_CHUNK, end);
+        long hash = 0;
+        for (; pos < end; pos += 1) {
+            hash = (hash << 1) + GEAR[bytes[pos] & 0xff];
+            if ((hash & BOUNDARY_MASK) == 0) {
+                return pos + 1;
+            }
+        }
+        return pos;
+    }
+}
@@ -0,0 +1,120 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests that files come back from the object store byte for byte,
+ *  whether or not they are text and whether or not they are chunked.
+ *  @author Daniel Ngo
+ */
+public class ChunkStoreTest {
+
+    /** A binary file above the chunking threshold, a small binary file and
+     *  a small file that begins like a manifest are restored exactly after
+     *  being committed, removed and checked out. */
+    @Test
+    public void binaryRoundTrip() throws IOException, InterruptedException {
+        File dir = Files.createTempDirectory("gitlet-chunks").toFile();
+        Random random = new Random(38);
+        byte[] large = new byte[2 * ChunkStore.THRESHOLD];
+        random.nextBytes(large);
+        byte[] small = new byte[3000];
+        random.nextBytes(small);
+        byte[] manifest = "\0gitlet-chunks\nhello 5\n".getBytes("UTF-8");
+        String[] names = {"large.bin", "small.bin", "manifest.bin"};
+        byte[][] contents = {large, small, manifest};
+
+        run(dir, "init");
+        for (int i = 0; i < names.length; i += 1) {
+            Utils.writeContents(new File(dir, names[i]), contents[i]);
+            run(dir, "add", names[i]);
+        }
+        run(dir, "commit", "binary files");
+        for (String name : names) {
+            run(dir, "rm", name);
+            assertFalse(new File(dir, name).exists());
+        }
+        run(dir, "commit", "removed");
+        run(dir, "reset", run(dir, "find", "binary files").trim());
+        for (int i = 0; i < names.length; i += 1) {
+            assertArrayEquals(names[i], contents[i],
+                    Utils.readContents(new File(dir, names[i])));
+        }
+        String fsck = run(dir, "fsck");
+        assertFalse(fsck, fsck.contains("corrupt"));
+    }
+
+    /** Binary files loaded by fast-import, from a marked blob and from
+     *  consecutive inline changes, are restored exactly. */
+    @Test
+    public void binaryFastImport() throws IOException, InterruptedException {
+        File dir = Files.createTempDirectory("gitlet-import").toFile();
+        Random random = new Random(48);
+        byte[] large = new byte[2 * ChunkStore.THRESHOLD];
+        random.nextBytes(large);
+        byte[] small = new byte[3000];
+        random.nextBytes(small);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(("blob\nmark :1\ndata " + large.length + "\n")
+                     .getBytes("UTF-8"));
+        stream.write(large);
+        stream.write(("\ncommit refs/heads/master\n"
+                      + "committer a <a> 1 +0000\ndata 8\nimported\n"
+                      + "M 100644 :1 large.bin\n").getBytes("UTF-8"));
+        for (String name : new String[] {"small.bin", "copy.bin"}) {
+            stream.write(("M 100644 inline " + name + "\ndata "
+                          + small.length + "\n").getBytes("UTF-8"));
+            stream.write(small);
+            stream.write('\n');
+        }
+        File input = new File(dir, "stream");
+        Utils.writeContents(input, stream.toByteArray());
+
+        run(dir, "init");
+        run(dir, input, "fast-import");
+        run(dir, "reset", run(dir, "find", "imported").trim());
+        assertArrayEquals("large.bin", large,
+                Utils.readContents(new File(dir, "large.bin")));
+        assertArrayEquals("small.bin", small,
+                Utils.readContents(new File(dir, "small.bin")));
+        assertArrayEquals("copy.bin", small,
+                Utils.readContents(new File(dir, "copy.bin")));
+    }
+
+    /** Run gitlet with ARGS in DIR, check that it succeeds and return its
+     *  output. */
+    private static String run(File dir, String... args)
+        throws IOException, InterruptedException {
+        return run(dir, null, args);
+    }
+
+    /** Run gitlet with ARGS in DIR and standard input from INPUT, unless
+     *  it is null, check that it succeeds and return its output. */
+    private static String run(File dir, File input, String... args)
+        throws IOException, InterruptedException {
+        ArrayList<String> command = new ArrayList<>(List.of(
+                ProcessHandle.current().info().command().orElse("java"),
+                "-cp", System.getProperty("java.class.path"),
+                "gitlet.Main"));
+        command.addAll(List.of(args));
+        File out = new File(dir, "out.log");
+        ProcessBuilder builder = new ProcessBuilder(command).directory(dir)
+            .redirectErrorStream(true).redirectOutput(out);
+        if (input != null) {
+            builder.redirectInput(input);
+        }
+        Process process = builder.start();
+        assertEquals(0, process.waitFor());
+        String output = Utils.readContentsAsString(out);
+        assertFalse(output, output.contains("Exception"));
+        return output;
+    }
+}
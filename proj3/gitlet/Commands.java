@@ -1,27 +1,61 @@
 package gitlet;
 
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.io.OutputStream;
+import java.io.PrintWriter;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Date;
 import java.util.TreeMap;
 import java.util.Map;
 import java.util.ArrayDeque;
 import java.util.HashSet;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.PatternSyntaxException;
 
 public class Commands implements Serializable {
+    /** Fixed so that repositories written by earlier versions
+     * stay readable as methods are added. */
+    private static final long serialVersionUID = 2165197490711447668L;
+    /** The variables file holds commit ids as hex digits, so that it
+     * reads the same as it always has; see writeObject. */
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("commits", ArrayList.class),
+        new ObjectStreamField("branches", TreeMap.class),
+        new ObjectStreamField("headcommit", String.class),
+        new ObjectStreamField("headbranch", String.class),
+        new ObjectStreamField("stage", Staging.class),
+        new ObjectStreamField("remotes", TreeMap.class),
+    };
     /** A list of all commits. */
-    private ArrayList<String> commits;
+    private ArrayList<ObjectId> commits;
     /** A tree map of all branches. */
-    private TreeMap<String, String> branches;
-    /** A string referring to the id of the head commit. */
-    private String headcommit;
+    private TreeMap<String, ObjectId> branches;
+    /** The id of the head commit. */
+    private ObjectId headcommit;
     /** A string referring to the id of the head branch. */
     private String headbranch;
     /** An instance of the staging area. */
     private Staging stage;
+    /** A tree map of remote names to their .gitlet directories. */
+    private TreeMap<String, String> remotes;
 
     public Commands() {
         File pathtoprev = Utils.join(Main.GITLET_FOLDER, "variables");
@@ -32,15 +66,84 @@ public class Commands implements Serializable {
             headcommit = prev.headcommit;
             headbranch = prev.headbranch;
             stage = prev.stage;
+            remotes = prev.remotes;
         } else {
-            commits = new ArrayList<String>();
-            branches = new TreeMap<String, String>();
+            commits = new ArrayList<ObjectId>();
+            branches = new TreeMap<String, ObjectId>();
         }
     }
 
+    /** Writes these variables with their ids as hex digits.
+     * @param out stream to write to */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ArrayList<String> commitnames = new ArrayList<String>();
+        for (ObjectId id : commits) {
+            commitnames.add(id.name());
+        }
+        TreeMap<String, String> branchnames = new TreeMap<String, String>();
+        for (Map.Entry<String, ObjectId> e : branches.entrySet()) {
+            branchnames.put(e.getKey(), e.getValue().name());
+        }
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("commits", commitnames);
+        fields.put("branches", branchnames);
+        fields.put("headcommit", headcommit == null ? null
+                : headcommit.name());
+        fields.put("headbranch", headbranch);
+        fields.put("stage", stage);
+        fields.put("remotes", remotes);
+        out.writeFields();
+    }
+
+    /** Reads variables written by writeObject, or by versions before it.
+     * @param in stream to read from */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in)
+        throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        try {
+            commits = new ArrayList<ObjectId>();
+            for (String name
+                     : (ArrayList<String>) fields.get("commits", null)) {
+                commits.add(ObjectId.fromHex(name));
+            }
+            branches = new TreeMap<String, ObjectId>();
+            for (Map.Entry<String, String> e : ((TreeMap<String, String>)
+                     fields.get("branches", null)).entrySet()) {
+                branches.put(e.getKey(), ObjectId.fromHex(e.getValue()));
+            }
+            headcommit = ObjectId.parse((String) fields.get("headcommit",
+                    null));
+        } catch (IllegalArgumentException | ClassCastException excp) {
+            throw new InvalidObjectException(excp.getMessage());
+        }
+        headbranch = (String) fields.get("headbranch", null);
+        stage = (Staging) fields.get("stage", null);
+        remotes = (TreeMap<String, String>) fields.get("remotes", null);
+    }
+
     public void savevariables() {
-        File variables = Utils.join(Main.GITLET_FOLDER, "variables");
-        Utils.writeObject(variables, this);
+        savevariables(Main.GITLET_FOLDER);
+    }
+
+    /** Saves these variables in the repository whose .gitlet directory
+     * is GITLET.
+     * @param gitlet .gitlet directory to save in */
+    private void savevariables(File gitlet) {
+        File variables = Utils.join(gitlet, "variables");
+        Utils.replaceObject(variables, this);
+    }
+
+    /** Returns the variables of the repository whose .gitlet directory is
+     * GITLET, exiting if there is no such repository.
+     * @param gitlet .gitlet directory to read from */
+    private static Commands readvariables(File gitlet) {
+        File variables = Utils.join(gitlet, "variables");
+        if (!variables.isFile()) {
+            System.out.println("Remote directory not found.");
+            System.exit(0);
+        }
+        return Utils.readObject(variables, Commands.class);
     }
 
     public Staging getStage() {
@@ -65,6 +168,13 @@ public class Commands implements Serializable {
      * (they will all have the same UID) and all
      * commits in all repositories will trace back to it. */
     public void init() {
+        init(Hashing.SHA1);
+    }
+
+    /** Creates a new Gitlet version-control system as for init, whose
+     * object ids are computed with the given hash.
+     * @param hash hash of the new repository */
+    public void init(Hashing hash) {
         File git = new File(".gitlet");
         if (git.exists()) {
             System.out.println(
@@ -76,17 +186,20 @@ public class Commands implements Serializable {
         Commit.COMMIT_FOLDER.mkdirs();
         Blobs.BLOB_FOLDER.mkdirs();
         Staging.STAGING_FOLDER.mkdirs();
+        Hashing.setRepository(hash);
         Commit initcommit = new Commit("initial commit",
-                null, null, new HashMap<>());
+                null, null, new HashMap<>(), new Date(0));
         stage = new Staging();
         Utils.writeObject(Utils.join(Staging.STAGING_FOLDER, "stage"), stage);
-        String commitid = initcommit.getHashid();
+        ObjectId commitid = initcommit.getHashid();
         headcommit = commitid;
         commits.add(commitid);
         headbranch = "master";
         branches.put("master", commitid);
-        File newcommit = Utils.join(Commit.COMMIT_FOLDER, headcommit);
+        File newcommit = Utils.join(Commit.COMMIT_FOLDER,
+                headcommit.name());
         Utils.writeObject(newcommit, initcommit);
+        MessageIndex.rebuild(commits);
         savevariables();
     }
 
@@ -108,13 +221,8 @@ public class Commands implements Serializable {
     public void add(String filename) {
         File newfile = new File(filename);
         if (newfile.exists()) {
-            Blobs newblob = new Blobs(filename,
-                    Utils.readContentsAsString(newfile));
-            String blobid = newblob.getId();
-            File pathtoprevcommit = Utils.join(Commit.COMMIT_FOLDER,
-                    headcommit);
-            Commit prevcommit = Utils.readObject(pathtoprevcommit,
-                    Commit.class);
+            ObjectId blobid = ChunkStore.store(filename, newfile);
+            Commit prevcommit = ObjectCache.readCommit(headcommit);
             headcommit = prevcommit.getHashid();
             if (!prevcommit.getBlob().isEmpty()
                     && prevcommit.getBlob().get(filename) != null
@@ -132,10 +240,7 @@ public class Commands implements Serializable {
                 if (stage.getRemoved().containsKey(filename)) {
                     stage.getRemoved().remove(filename);
                 }
-                File pathtoblob = Utils.join(Blobs.BLOB_FOLDER,
-                        newblob.getId());
-                Utils.writeContents(pathtoblob, newblob.getContent());
-                stage.addstaged(filename, newblob.getId());
+                stage.addstaged(filename, blobid);
                 Utils.writeObject(Utils.join(Staging.STAGING_FOLDER,
                         "stage"), stage);
                 savevariables();
@@ -204,9 +309,8 @@ public class Commands implements Serializable {
             System.out.println("Please enter a commit message.");
             System.exit(0);
         }
-        File pathtoprevcommit = Utils.join(Commit.COMMIT_FOLDER, headcommit);
-        Commit prevcommit = Utils.readObject(pathtoprevcommit, Commit.class);
-        Map<String, String> blobs = prevcommit.getBlob();
+        Commit prevcommit = ObjectCache.readCommit(headcommit);
+        Map<String, ObjectId> blobs = new HashMap<>(prevcommit.getBlob());
         ArrayList<String> addfiles = new ArrayList<>(
                 stage.getStaged().keySet());
         for (String filename: addfiles) {
@@ -218,9 +322,11 @@ public class Commands implements Serializable {
         Commit newcommit = new Commit(message, prevcommit.getHashid(),
                 null, blobs);
         headcommit = newcommit.getHashid();
-        File pathtocommit = Utils.join(Commit.COMMIT_FOLDER, headcommit);
+        File pathtocommit = Utils.join(Commit.COMMIT_FOLDER,
+                headcommit.name());
         Utils.writeObject(pathtocommit, newcommit);
         commits.add(newcommit.getHashid());
+        MessageIndex.append(newcommit.getHashid(), message);
         branches.put(headbranch, newcommit.getHashid());
         stage.clearstages();
         savevariables();
@@ -233,15 +339,14 @@ public class Commands implements Serializable {
      * (do not remove it unless it is tracked in the current commit).
      * @param filename file to remove */
     public void rm(String filename) {
-        File pathtoprevcommit = Utils.join(Commit.COMMIT_FOLDER, headcommit);
-        Commit prevcommit = Utils.readObject(pathtoprevcommit, Commit.class);
+        Commit prevcommit = ObjectCache.readCommit(headcommit);
         if (stage.getStaged().containsKey(filename)) {
             stage.getStaged().remove(filename);
             Utils.writeObject(Utils.join(Staging.STAGING_FOLDER,
                     "stage"), stage);
             savevariables();
         } else if (prevcommit.getBlob().containsKey(filename)) {
-            stage.addremoved(filename, "randomhash");
+            stage.addremoved(filename, prevcommit.getBlob().get(filename));
             if (stage.getStaged().containsKey(filename)) {
                 stage.getStaged().remove(filename);
             }
@@ -292,43 +397,153 @@ public class Commands implements Serializable {
      *      and second parents' commit ids, in that order.
      *      The first parent is the branch you were on when you did the
      *      merge; the second is that of the merged-in branch.
-     *      This is as in regular Git.*/
-    public void log() {
-        File pathtoprevcommit = Utils.join(Commit.COMMIT_FOLDER, headcommit);
-        Commit prevcommit = Utils.readObject(pathtoprevcommit, Commit.class);
-        while (prevcommit != null) {
-            System.out.println("===");
-            System.out.println("commit " + prevcommit.getHashid());
-            if (prevcommit.getSecondparent() != null) {
-                System.out.println("Merge: "
-                        + prevcommit.getParent().substring(0, 7)
-                        + " " + prevcommit.getSecondparent().substring(0, 7));
-            }
-            System.out.println("Date: " + prevcommit.getTimestamp());
-            System.out.println(prevcommit.getMessage() + "\n");
-            if (prevcommit.getParent() != null) {
-                File pathtoparent = Utils.join(Commit.COMMIT_FOLDER,
-                        prevcommit.getParent());
-                Commit parent = Utils.readObject(pathtoparent, Commit.class);
-                prevcommit = parent;
-            } else {
-                prevcommit = null;
+     *      This is as in regular Git.
+     *
+     * Options: -n [count] prints at most count commits,
+     * --since [date] and --until [date] (yyyy-MM-dd, optionally followed
+     * by HH:mm:ss) limit the commits by time, and --date-order or
+     * --topo-order walk all parents rather than only the first.
+     * log -- [file] shows only the commits that changed the file
+     * relative to their first parent.
+     * History is read lazily, so the first entry is printed without
+     * reading the rest of the history.
+     * @param args the log command and its options */
+    public void log(String... args) {
+        int limit = Integer.MAX_VALUE;
+        long since = Long.MIN_VALUE;
+        long until = Long.MAX_VALUE;
+        History.Order order = History.Order.FIRST_PARENT;
+        String path = null;
+        try {
+            for (int i = 1; i < args.length; i += 1) {
+                switch (args[i]) {
+                case "-n":
+                    i += 1;
+                    limit = Integer.parseInt(args[i]);
+                    break;
+                case "--since":
+                    i += 1;
+                    since = parsedate(args[i]);
+                    break;
+                case "--until":
+                    i += 1;
+                    until = parsedate(args[i]);
+                    break;
+                case "--date-order":
+                    order = History.Order.DATE;
+                    break;
+                case "--topo-order":
+                    order = History.Order.TOPO;
+                    break;
+                case "--":
+                    i += 1;
+                    path = args[i];
+                    if (i != args.length - 1) {
+                        throw new IllegalArgumentException(args[i]);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException(args[i]);
+                }
+            }
+        } catch (IllegalArgumentException | IndexOutOfBoundsException
+                | ParseException excp) {
+            System.out.println("Incorrect operands.");
+            System.exit(0);
+        }
+        PrintWriter out = Utils.bufferedOutput();
+        if (path != null && order == History.Order.FIRST_PARENT) {
+            pathlog(out, path, limit, since, until);
+            out.flush();
+            return;
+        }
+        CommitGraph graph = path == null ? null : CommitGraph.load();
+        History history = new History(List.of(headcommit), order);
+        int count = 0;
+        while (count < limit && history.hasNext()) {
+            Commit prevcommit = history.next();
+            long time = prevcommit.getTime();
+            if (time < since && order != History.Order.TOPO) {
+                break;
+            } else if (time < since || time > until) {
+                continue;
+            } else if (graph != null
+                    && !graph.changes(prevcommit.getHashid(), path)) {
+                continue;
+            }
+            printlog(out, prevcommit);
+            count += 1;
+        }
+        if (graph != null) {
+            graph.save();
+        }
+        out.flush();
+    }
+
+    /** Writes to OUT the log entries of at most LIMIT first-parent
+     * ancestors of the head made between SINCE and UNTIL that changed
+     * PATH. The walk follows the commit graph, so only commits whose
+     * changed-path filter matches PATH are read.
+     * @param out where to write
+     * @param path file whose history to show
+     * @param limit maximum number of entries
+     * @param since earliest commit time
+     * @param until latest commit time */
+    private void pathlog(PrintWriter out, String path, int limit,
+                         long since, long until) {
+        CommitGraph graph = CommitGraph.load();
+        int count = 0;
+        for (ObjectId id = headcommit; id != null && count < limit;
+             id = graph.parent(id)) {
+            long time = graph.time(id);
+            if (time < since) {
+                break;
+            } else if (time <= until && graph.changes(id, path)) {
+                printlog(out, ObjectCache.readCommit(id));
+                count += 1;
             }
         }
+        graph.save();
+    }
+
+    /** Writes the log entry for COMMIT to OUT.
+     * @param out where to write
+     * @param commit commit to describe */
+    private void printlog(PrintWriter out, Commit commit) {
+        out.println("===");
+        out.println("commit " + commit.getHashid().name());
+        if (commit.getSecondparent() != null) {
+            out.println("Merge: "
+                    + commit.getParent().abbreviate(7)
+                    + " " + commit.getSecondparent().abbreviate(7));
+        }
+        out.println("Date: " + commit.getTimestamp());
+        out.println(commit.getMessage() + "\n");
+    }
+
+    /** Returns the time in milliseconds denoted by DATE, which is either
+     * yyyy-MM-dd or yyyy-MM-dd HH:mm:ss in the local time zone.
+     * @param date date to parse */
+    private long parsedate(String date) throws ParseException {
+        String format = "yyyy-MM-dd";
+        if (date.contains(":")) {
+            format = "yyyy-MM-dd HH:mm:ss";
+        }
+        SimpleDateFormat parser = new SimpleDateFormat(format);
+        parser.setLenient(false);
+        return parser.parse(date).getTime();
     }
 
     /** Like log, except displays information about all commits ever made.
-     * The order of the commits does not matter. */
+     * The order of the commits does not matter. Commits are decoded in
+     * parallel but printed in the order they were made. */
     public void globallog() {
-        for (String commitid: commits) {
-            File pathtoprevcommit = Utils.join(Commit.COMMIT_FOLDER, commitid);
-            Commit prevcommit = Utils.readObject(pathtoprevcommit,
-                    Commit.class);
-            System.out.println("===");
-            System.out.println("commit " + prevcommit.getHashid());
-            System.out.println("Date: " + prevcommit.getTimestamp());
-            System.out.println(prevcommit.getMessage() + "\n");
-        }
+        PrintWriter out = Utils.bufferedOutput();
+        CommitScan.forEachOrdered(commits, prevcommit -> "===\n"
+                + "commit " + prevcommit.getHashid().name() + "\n"
+                + "Date: " + prevcommit.getTimestamp() + "\n"
+                + prevcommit.getMessage() + "\n", entry -> out.println(entry));
+        out.flush();
     }
 
     /** Prints out the ids of all commits that have the given commit message,
@@ -339,22 +554,47 @@ public class Commands implements Serializable {
      * to indicate a multiword message,
      * put the operand in quotation marks,
      * as for the commit command above.
+     * Answered from the message index rather than by reading every commit.
      * @param  message message to find*/
     public void find(String message) {
-        int counter = 0;
-        for (String commitid: commits) {
-            File pathtoprevcommit = Utils.join(Commit.COMMIT_FOLDER, commitid);
-            Commit prevcommit = Utils.readObject(pathtoprevcommit,
-                    Commit.class);
-            if (prevcommit.getMessage().equals(message)) {
-                System.out.println(prevcommit.getHashid());
-                counter += 1;
+        printfound(MessageIndex.load(commits).exact(message));
+    }
+
+    /** Like find, but with MODE --substring prints the commits whose
+     * message contains TEXT, and with MODE --grep the commits whose
+     * message contains a match of the regular expression TEXT.
+     * @param mode --substring or --grep
+     * @param text text or pattern to search for */
+    public void find(String mode, String text) {
+        MessageIndex index = MessageIndex.load(commits);
+        if (mode.equals("--substring")) {
+            printfound(index.substring(text));
+        } else if (mode.equals("--grep")) {
+            try {
+                printfound(index.grep(text));
+            } catch (PatternSyntaxException excp) {
+                System.out.println("Invalid pattern.");
+                System.exit(0);
             }
+        } else {
+            System.out.println("Incorrect operands.");
+            System.exit(0);
         }
-        if (counter == 0) {
+    }
+
+    /** Prints the commit ids in FOUND, one per line, or a message saying
+     * there were none.
+     * @param found ids of the matching commits */
+    private void printfound(List<ObjectId> found) {
+        if (found.isEmpty()) {
             System.out.println("Found no commit with that message.");
             System.exit(0);
         }
+        PrintWriter out = Utils.bufferedOutput();
+        for (ObjectId id: found) {
+            out.println(id.name());
+        }
+        out.flush();
     }
 
     /** Displays what branches currently exist,
@@ -430,41 +670,32 @@ public class Commands implements Serializable {
         if (args.length == 3) {
             String[] newargs = new String[4];
             newargs[0] = args[0];
-            newargs[1] = headcommit;
+            newargs[1] = headcommit.name();
             newargs[2] = args[1];
             newargs[3] = args[2];
             checkout(newargs);
         }
         if (args.length == 4) {
-            String commitid = args[1];
+            String prefix = args[1];
             String filename = args[3];
-            int check = 0;
-            for (String id: commits) {
-                if (id.equals(commitid)) {
-                    check += 1;
-                }
-                if (id.startsWith(commitid)) {
-                    check += 1;
+            ObjectId commitid = null;
+            for (ObjectId id: commits) {
+                if (id.startsWith(prefix)) {
                     commitid = id;
                 }
             }
-            if (check == 0) {
+            if (commitid == null) {
                 System.out.println("No commit with that id exists.");
                 System.exit(0);
             }
-            File pathtoprevcommit = Utils.join(Commit.COMMIT_FOLDER, commitid);
-            Commit prevcommit = Utils.readObject(pathtoprevcommit,
-                    Commit.class);
-            Map<String, String> blobs = prevcommit.getBlob();
+            Commit prevcommit = ObjectCache.readCommit(commitid);
+            Map<String, ObjectId> blobs = prevcommit.getBlob();
             if (!blobs.containsKey(filename)) {
                 System.out.println("File does not exist in that commit.");
                 System.exit(0);
             }
-            File pathtoblob = Utils.join(Blobs.BLOB_FOLDER,
-                    prevcommit.getBlob().get(filename));
-            String content = Utils.readContentsAsString(pathtoblob);
-            File newblob = Utils.join(Main.CWD, filename);
-            Utils.writeContents(newblob, content);
+            ChunkStore.writeTo(prevcommit.getBlob().get(filename),
+                    Utils.join(Main.CWD, filename));
             savevariables();
         }
     }
@@ -480,34 +711,22 @@ public class Commands implements Serializable {
             System.out.println("No need to checkout the current branch.");
             System.exit(0);
         }
-        Commit branchcommit = Utils.readObject(Utils.join(
-                Commit.COMMIT_FOLDER,
-                branches.get(branchname)), Commit.class);
-        Map<String, String> branchblobs = branchcommit.getBlob();
-        Commit currcommit = Utils.readObject(Utils.join(
-                Commit.COMMIT_FOLDER, headcommit), Commit.class);
-        Map<String, String> currblobs = currcommit.getBlob();
-        List<String> cwdfiles = Utils.plainFilenamesIn(Main.CWD);
-        for (String name: cwdfiles) {
-            if (!currblobs.containsKey(name)
-                    && !stage.getStaged().containsKey(name)
-                    && branchblobs.containsKey(name)) {
-                System.out.println(
-                        "There is an untracked file in the way; delete it,"
-                                + " or add and commit it first.");
-                System.exit(0);
-            }
-        }
-        for (String name: cwdfiles) {
-            if (!branchblobs.containsKey(name)
-                    && currblobs.containsKey(name)) {
-                Utils.restrictedDelete(name);
+        SparseCheckout sparse = SparseCheckout.load();
+        Commit branchcommit = ObjectCache.readCommit(branches.get(branchname));
+        Map<String, ObjectId> branchblobs =
+            sparse.select(branchcommit.getBlob());
+        Commit currcommit = ObjectCache.readCommit(headcommit);
+        Map<String, ObjectId> currblobs = sparse.select(currcommit.getBlob());
+        untrackedcheck(currblobs, branchblobs);
+        Promisor.prefetch(branchblobs.values());
+        for (String name: currblobs.keySet()) {
+            if (!branchblobs.containsKey(name)) {
+                Utils.restrictedDelete(Utils.join(Main.CWD, name));
             }
         }
         for (String file: branchblobs.keySet()) {
-            String content = Utils.readContentsAsString(Utils.join(
-                    Blobs.BLOB_FOLDER, branchblobs.get(file)));
-            Utils.writeContents(Utils.join(Main.CWD, file), content);
+            ChunkStore.writeTo(branchblobs.get(file),
+                    Utils.join(Main.CWD, file));
         }
         stage.clearstages();
         headcommit = branches.get(branchname);
@@ -515,6 +734,26 @@ public class Commands implements Serializable {
         savevariables();
     }
 
+    /** Exits with an error message if a file of TARGET that CURRENT does
+     * not track is in the working directory without being staged, since
+     * writing TARGET would overwrite it. Only the files TARGET adds are
+     * looked for, so the check costs a stat per added file rather than a
+     * listing of the whole working directory.
+     * @param current files of the head commit, by name
+     * @param target files about to be written, by name */
+    private void untrackedcheck(Map<String, ObjectId> current,
+                                Map<String, ObjectId> target) {
+        for (String name: target.keySet()) {
+            if (!current.containsKey(name)
+                    && !stage.getStaged().containsKey(name)
+                    && Utils.join(Main.CWD, name).isFile()) {
+                System.out.println("There is an untracked file in the way; "
+                        + "delete it, or add and commit it first.");
+                System.exit(0);
+            }
+        }
+    }
+
     /** Creates a new branch with the given name,
      * and points it at the current head node.
      * A branch is nothing more than a name for a reference
@@ -561,32 +800,23 @@ public class Commands implements Serializable {
      * The staging area is cleared. The command is essentially
      * checkout of an arbitrary commit that
      * also changes the current branch head.
-     * @param commitid id of commit to reset to */
-    public void reset(String commitid) {
-        if (!commits.contains(commitid)) {
+     * @param name id of commit to reset to */
+    public void reset(String name) {
+        ObjectId commitid = ObjectId.parse(name);
+        if (commitid == null || !commits.contains(commitid)) {
             System.out.println("No commit with that id exists.");
             System.exit(0);
         }
-        Commit currcommit = Utils.readObject(Utils.join(
-                Commit.COMMIT_FOLDER, headcommit), Commit.class);
-        Map<String, String> currblobs = currcommit.getBlob();
-        Commit prevcommit = Utils.readObject(Utils.join(
-                Commit.COMMIT_FOLDER, commitid), Commit.class);
-        Map<String, String> prevblobs = prevcommit.getBlob();
-        List<String> cwdfiles = Utils.plainFilenamesIn(Main.CWD);
-        for (String file: cwdfiles) {
-            if (!currblobs.containsKey(file)
-                    && !stage.getStaged().containsKey(file)
-                    && prevblobs.containsKey(file)) {
-                System.out.println("There is an untracked file in the way; "
-                        + "delete it, or add and commit it first.");
-                System.exit(0);
-            }
-        }
+        SparseCheckout sparse = SparseCheckout.load();
+        Commit currcommit = ObjectCache.readCommit(headcommit);
+        Map<String, ObjectId> currblobs = sparse.select(currcommit.getBlob());
+        Commit prevcommit = ObjectCache.readCommit(commitid);
+        Map<String, ObjectId> prevblobs = sparse.select(prevcommit.getBlob());
+        untrackedcheck(currblobs, prevblobs);
+        Promisor.prefetch(prevblobs.values());
         for (String file: prevblobs.keySet()) {
-            String content = Utils.readContentsAsString(
-                    Utils.join(Blobs.BLOB_FOLDER, prevblobs.get(file)));
-            Utils.writeContents(Utils.join(Main.CWD, file), content);
+            ChunkStore.writeTo(prevblobs.get(file),
+                    Utils.join(Main.CWD, file));
         }
         for (String file: currblobs.keySet()) {
             if (!prevblobs.containsKey(file)) {
@@ -600,83 +830,508 @@ public class Commands implements Serializable {
         savevariables();
     }
 
+    /** Deletes commits and blobs that cannot be reached from any branch
+     * or from the staging area, once they are older than a grace period
+     * of two weeks, and reports the space reclaimed.
+     * gc --prune [days] sets the grace period in days, and
+     * gc --prune now removes unreachable objects regardless of age.
+     * @param args the gc command and its options */
+    public void gc(String... args) {
+        long grace = GarbageCollector.DEFAULT_GRACE;
+        if (args.length == 3 && args[1].equals("--prune")) {
+            if (args[2].equals("now")) {
+                grace = 0;
+            } else {
+                try {
+                    grace = Long.parseLong(args[2]) * 24 * 60 * 60 * 1000;
+                } catch (NumberFormatException excp) {
+                    System.out.println("Incorrect operands.");
+                    System.exit(0);
+                }
+            }
+        } else if (args.length != 1) {
+            System.out.println("Incorrect operands.");
+            System.exit(0);
+        }
+        GarbageCollector collector = new GarbageCollector(
+                branches.values(), stage.getStaged().values());
+        Set<ObjectId> deleted = collector.run(grace);
+        if (!deleted.isEmpty()) {
+            commits.removeIf(deleted::contains);
+            MessageIndex.rebuild(commits);
+        }
+        savevariables();
+        PrintWriter out = Utils.bufferedOutput();
+        collector.report(out);
+        out.flush();
+    }
+
+    /** Prints each line of the given file as of the head commit, preceded
+     * by the abbreviated id and date of the commit that last changed it
+     * and the line number. Only first parents are followed, so lines
+     * brought in by a merge are attributed to the merge commit.
+     * @param filename file to blame */
+    public void blame(String filename) {
+        if (!ObjectCache.readCommit(headcommit).getBlob()
+                .containsKey(filename)) {
+            System.out.println("File does not exist in that commit.");
+            System.exit(0);
+        }
+        Blame blame = new Blame(headcommit, filename);
+        ObjectId[] origins = blame.run();
+        List<String> lines = blame.lines();
+        HashMap<ObjectId, String> dates = new HashMap<>();
+        PrintWriter out = Utils.bufferedOutput();
+        for (int i = 0; i < origins.length; i += 1) {
+            String date = dates.computeIfAbsent(origins[i],
+                id -> ObjectCache.readCommit(id).getTimestamp());
+            out.printf("%s (%s %4d) %s%n", origins[i].abbreviate(7), date,
+                    i + 1, lines.get(i));
+        }
+        out.flush();
+    }
+
+    /** Prints the changes between two commits as unified diffs, in order
+     * of file name. With one commit, compares it to the tracked files of
+     * the working directory; with none, compares the head commit to them.
+     * A commit is named by a branch or by an id, which may be abbreviated
+     * as for checkout.
+     * @param args the command and the commits to compare */
+    public void diff(String... args) {
+        if (args.length > 3) {
+            System.out.println("Incorrect operands.");
+            System.exit(0);
+        }
+        FileList before = ObjectCache.readCommit(args.length > 1
+                ? commitnamed(args[1]) : headcommit).getFiles();
+        TreeDiff diff;
+        if (args.length == 3) {
+            diff = new TreeDiff(before,
+                    ObjectCache.readCommit(commitnamed(args[2])).getFiles(),
+                    null);
+        } else {
+            SparseCheckout sparse = SparseCheckout.load();
+            diff = new TreeDiff(before, worktree(sparse), sparse);
+        }
+        PrintWriter out = Utils.bufferedOutput();
+        diff.print(out);
+        out.flush();
+    }
+
+    /** Writes the files of the commit NAME, a branch or an abbreviated
+     * commit id, to the archive OUT, a tar or a zip according to its name,
+     * straight from the object store (see Archive).
+     * @param name branch name or abbreviated commit id
+     * @param out name of the archive file */
+    public void archive(String name, String out) {
+        if (!out.endsWith(".tar") && !out.endsWith(".zip")) {
+            System.out.println("Archive name must end in .tar or .zip.");
+            System.exit(0);
+        }
+        Commit commit = ObjectCache.readCommit(commitnamed(name));
+        new Archive(commit, new File(out), out.endsWith(".zip")).write();
+    }
+
+    /** Writes the history of every branch to the standard output in the
+     * format of git fast-import, which fastimport reads back to the same
+     * commits. */
+    public void fastexport() {
+        OutputStream out = new BufferedOutputStream(
+                new FileOutputStream(FileDescriptor.out),
+                Utils.OUTPUT_BUFFER_SIZE);
+        new FastExport(branches).write(out);
+    }
+
+    /** Reads commits, files and branches in the format of git fast-import
+     * from IN and adds them to the repository, moving the branches named
+     * once the whole stream is read. The working directory and staging
+     * area are left alone, even if the current branch moves. If the
+     * stream is malformed, no branch moves, but the objects already
+     * written stay, unreferenced.
+     * @param in stream to import */
+    public void fastimport(InputStream in) {
+        FastImport stream = new FastImport(in, branches);
+        try {
+            stream.run();
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+            System.exit(0);
+        }
+        HashSet<ObjectId> known = new HashSet<>(commits);
+        ArrayList<ObjectId> ids = new ArrayList<>();
+        ArrayList<String> messages = new ArrayList<>();
+        for (int i = 0; i < stream.commits().size(); i += 1) {
+            if (known.add(stream.commits().get(i))) {
+                ids.add(stream.commits().get(i));
+                messages.add(stream.messages().get(i));
+            }
+        }
+        commits.addAll(ids);
+        MessageIndex.append(ids, messages);
+        branches.putAll(stream.branches());
+        headcommit = branches.get(headbranch);
+        savevariables();
+        System.out.printf("Imported %d commits and %d blobs.%n", ids.size(),
+                stream.blobCount());
+    }
+
+    /** Returns the id of the commit at the head of the branch NAME, or
+     * else of the commit whose id starts with NAME. Exits with an error
+     * message if there is none.
+     * @param name branch name or abbreviated commit id */
+    private ObjectId commitnamed(String name) {
+        if (branches.containsKey(name)) {
+            return branches.get(name);
+        }
+        for (ObjectId id: commits) {
+            if (id.startsWith(name)) {
+                return id;
+            }
+        }
+        System.out.println("No commit with that id exists.");
+        System.exit(0);
+        return null;
+    }
+
+    /** Returns the tracked files of the working directory, those of the
+     * head commit and those staged, less those staged for removal, with
+     * the ids of their current contents. Files outside the sparse
+     * checkout SPARSE keep their ids in the head commit, and missing
+     * files are left out.
+     * @param sparse the sparse checkout */
+    private FileList worktree(SparseCheckout sparse) {
+        Map<String, ObjectId> head =
+            ObjectCache.readCommit(headcommit).getBlob();
+        HashMap<String, ObjectId> result = new HashMap<>(head);
+        result.putAll(stage.getStaged());
+        result.keySet().removeAll(stage.getRemoved().keySet());
+        result.replaceAll((name, id) -> {
+            if (!sparse.includes(name)) {
+                return id;
+            }
+            File file = Utils.join(Main.CWD, name);
+            return file.isFile() ? ChunkStore.id(name, file) : null;
+        });
+        result.values().removeIf(id -> id == null);
+        return FileList.of(result);
+    }
+
+    /** Prints the number of commits, how blobs are stored, with the
+     * bytes saved by chunking large files, and the object cache counters
+     * of this run. */
+    public void stats() {
+        List<String> commitfiles =
+            Utils.plainFilenamesIn(Commit.COMMIT_FOLDER);
+        PrintWriter out = Utils.bufferedOutput();
+        out.printf("Commits: %d.%n", commitfiles.size());
+        ChunkStore.report(out);
+        out.println(ObjectCache.stats());
+        out.flush();
+    }
+
+    /** For: sparse-checkout set [pattern] ...
+     *      Limits the working directory to files whose names match one of
+     *      the glob patterns. Files of the head commit that now match are
+     *      written, and those that no longer match are deleted unless they
+     *      are staged or modified. A file in the way of one that would
+     *      be written, with other contents, stops the command before
+     *      anything changes.
+     * For: sparse-checkout list
+     *      Prints the patterns, one per line.
+     * For: sparse-checkout disable
+     *      Includes every file again, writing those left out.
+     * @param args arguments to sparse-checkout */
+    public void sparsecheckout(String... args) {
+        SparseCheckout before = SparseCheckout.load();
+        if (args[1].equals("list")) {
+            if (!before.isFull()) {
+                before.patterns().forEach(System.out::println);
+            }
+            return;
+        }
+        List<String> patterns = args[1].equals("set")
+            ? List.of(args).subList(2, args.length) : null;
+        SparseCheckout after = SparseCheckout.of(patterns);
+        Map<String, ObjectId> headblobs =
+            ObjectCache.readCommit(headcommit).getBlob();
+        Map<String, ObjectId> added = new HashMap<>(after.select(headblobs));
+        added.keySet().removeAll(before.select(headblobs).keySet());
+        for (Map.Entry<String, ObjectId> entry : added.entrySet()) {
+            File file = Utils.join(Main.CWD, entry.getKey());
+            if (file.isFile() && !ChunkStore.id(entry.getKey(), file)
+                    .equals(entry.getValue())) {
+                System.out.println("There is an untracked file in the way; "
+                        + "delete it, or add and commit it first.");
+                System.exit(0);
+            }
+        }
+        if (patterns != null) {
+            SparseCheckout.set(patterns);
+        } else {
+            SparseCheckout.disable();
+        }
+        Promisor.prefetch(added.values());
+        for (Map.Entry<String, ObjectId> entry : added.entrySet()) {
+            ChunkStore.writeTo(entry.getValue(),
+                    Utils.join(Main.CWD, entry.getKey()));
+        }
+        for (Map.Entry<String, ObjectId> entry
+                 : before.select(headblobs).entrySet()) {
+            String name = entry.getKey();
+            File file = Utils.join(Main.CWD, name);
+            if (after.includes(name) || !file.isFile()
+                    || stage.getStaged().containsKey(name)) {
+                continue;
+            }
+            if (ChunkStore.id(name, file).equals(entry.getValue())) {
+                Utils.restrictedDelete(file);
+            }
+        }
+    }
+
+    /** Checks that every commit and blob still matches its id, and that
+     * every commit and blob reachable from a branch exists. Prints the
+     * corrupt, missing and dangling objects found and a summary.
+     * Objects are re-hashed in parallel. */
+    public void fsck() {
+        Fsck checker = new Fsck(branches, stage.getStaged());
+        checker.run();
+        PrintWriter out = Utils.bufferedOutput();
+        checker.report(out);
+        out.flush();
+    }
+
     /** Merges files from the given branch into the current branch.
+     * The files of the split point, the head and the given branch are
+     * walked together once, in the order of their path ids.
      * @param branchname branch to merge with current branch */
     public void merge(String branchname) {
-        boolean isconflict = false;
         mergecheck(branchname);
-        Commit currcommit = Utils.readObject(Utils.join(
-                Commit.COMMIT_FOLDER, headcommit), Commit.class);
-        Map<String, String> currblobs = currcommit.getBlob();
-        Commit branchcommit = Utils.readObject(Utils.join(
-                Commit.COMMIT_FOLDER, branches.get(branchname)), Commit.class);
-        Map<String, String> branchblobs = branchcommit.getBlob();
+        SparseCheckout sparse = SparseCheckout.load();
+        Commit currcommit = ObjectCache.readCommit(headcommit);
+        Commit branchcommit = ObjectCache.readCommit(branches.get(branchname));
         Commit splitpoint = getsplitpoint(currcommit, branchcommit);
-        Map<String, String> splitblobs = splitpoint.getBlob();
-        for (String file: currblobs.keySet()) {
-            if (splitblobs.containsKey(file)
-                    && branchblobs.containsKey(file)) {
-                if (!splitblobs.get(file).equals(branchblobs.get(file))
-                        && splitblobs.get(file).equals(currblobs.get(file))) {
-                    checkout(new String[]{"checkout",
-                            branches.get(branchname), "--", file});
-                    add(file);
+        FileList splitfiles = splitpoint.getFiles();
+        FileList currfiles = currcommit.getFiles();
+        FileList branchfiles = branchcommit.getFiles();
+        Promisor.prefetch(mergeblobs(splitfiles, currfiles, branchfiles,
+                sparse));
+        BitSet renamed = new BitSet();
+        boolean[] isconflict = {mergerenames(splitfiles, currfiles,
+                branchfiles, renamed, sparse)};
+        FileList.walk(splitfiles, currfiles, branchfiles,
+            (path, split, curr, branch) -> {
+                if (!renamed.get(path)) {
+                    isconflict[0] |= mergefile(branchname,
+                            PathTable.path(path), split, curr, branch,
+                            sparse);
+                }
+            });
+        if (isconflict[0]) {
+            System.out.println("Encountered a merge conflict.");
+        }
+        mergecommit(currcommit, branchcommit, branchname);
+        savevariables();
+    }
+
+    /** Returns the blobs a merge may read: the version on the given
+     * branch of each file it changed, when the merge takes it into the
+     * working directory or the file is a conflict, the head's version of
+     * each conflict, and, for each side that both deleted and added
+     * files, the rename candidates (the split point's versions of the
+     * deleted files and that side's of the added ones). The rest of both
+     * trees is not needed, which matters in a partial clone.
+     * @param splitfiles files at the split point
+     * @param currfiles files at the head
+     * @param branchfiles files at the head of the given branch
+     * @param sparse the sparse checkout */
+    private static List<ObjectId> mergeblobs(FileList splitfiles,
+                                             FileList currfiles,
+                                             FileList branchfiles,
+                                             SparseCheckout sparse) {
+        ArrayList<ObjectId> result = new ArrayList<>();
+        List<List<ObjectId>> renames = List.of(new ArrayList<>(),
+                new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+        FileList.walk(splitfiles, currfiles, branchfiles,
+            (path, split, curr, branch) -> {
+                if (split != null && curr == null) {
+                    renames.get(0).add(split);
+                } else if (split == null && curr != null) {
+                    renames.get(1).add(curr);
+                }
+                if (split != null && branch == null) {
+                    renames.get(2).add(split);
+                } else if (split == null && branch != null) {
+                    renames.get(3).add(branch);
+                }
+                if (Objects.equals(curr, branch)
+                        || Objects.equals(split, branch)) {
+                    return;
                 }
-                if (!splitblobs.get(file).equals(branchblobs.get(file))
-                        && !splitblobs.get(file).equals(currblobs.get(file))
-                        && !currblobs.get(file).
-                        equals(branchblobs.get(file))) {
-                    writeConflict(currblobs, file, branchblobs);
-                    isconflict = true;
+                boolean conflict = !Objects.equals(split, curr);
+                if (branch != null && (conflict
+                        || sparse.includes(PathTable.path(path)))) {
+                    result.add(branch);
                 }
-            } else if (!branchblobs.containsKey(file)
-                    && splitblobs.containsKey(file)
-                    && !splitblobs.get(file).equals(currblobs.get(file))) {
-                writeConflict(currblobs, file, branchblobs);
-                isconflict = true;
+                if (conflict && curr != null) {
+                    result.add(curr);
+                }
+            });
+        for (int side = 0; side < renames.size(); side += 2) {
+            if (!renames.get(side).isEmpty()
+                    && !renames.get(side + 1).isEmpty()) {
+                result.addAll(renames.get(side));
+                result.addAll(renames.get(side + 1));
             }
         }
-        for (String file: branchblobs.keySet()) {
-            if (!splitblobs.containsKey(file)
-                    && !currblobs.containsKey(file)) {
-                checkout(new String[]{"checkout",
-                        branches.get(branchname), "--", file});
-                add(file);
+        return result;
+    }
+
+    /** Merges one file, whose blob ids at the split point, the head and
+     * the head of the given branch are SPLIT, CURR and BRANCH, each null
+     * if the file is absent there. A file changed only on the given
+     * branch takes that branch's version (or is removed), and a file
+     * changed differently on both sides is a conflict. Returns true iff
+     * there was a conflict.
+     * @param branchname branch being merged
+     * @param file name of the file
+     * @param split blob id at the split point
+     * @param curr blob id at the head
+     * @param branch blob id at the head of the given branch
+     * @param sparse the sparse checkout */
+    private boolean mergefile(String branchname, String file,
+                              ObjectId split, ObjectId curr, ObjectId branch,
+                              SparseCheckout sparse) {
+        if (Objects.equals(curr, branch) || Objects.equals(split, branch)) {
+            return false;
+        } else if (Objects.equals(split, curr)) {
+            if (branch == null) {
+                rm(file);
+            } else {
+                mergetake(branchname, file, branch, sparse);
             }
-            if (!splitblobs.containsKey(file) && currblobs.containsKey(file)
-                    && !currblobs.get(file).equals(branchblobs.get(file))) {
-                writeConflict(currblobs, file, branchblobs);
-                isconflict = true;
+            return false;
+        }
+        writeConflict(file, curr, branch);
+        return true;
+    }
+
+    /** Carries changes made on one side of a merge over to the files
+     * renamed on the other, so that a rename merges like any other edit
+     * instead of as a deletion plus an addition. The paths involved are
+     * set in RENAMED, which the rest of the merge then leaves alone.
+     * Returns true iff there was a conflict.
+     * @param splitfiles files at the split point
+     * @param currfiles files at the head
+     * @param branchfiles files at the head of the given branch
+     * @param renamed path ids of the files merged here
+     * @param sparse the sparse checkout */
+    private boolean mergerenames(FileList splitfiles, FileList currfiles,
+                                 FileList branchfiles, BitSet renamed,
+                                 SparseCheckout sparse) {
+        boolean conflict = false;
+        for (RenameDetector.Rename rename
+                 : renames(splitfiles, currfiles, renamed)) {
+            String from = rename.from(), to = rename.to();
+            ObjectId theirs = branchfiles.get(from);
+            if (theirs == null || theirs.equals(splitfiles.get(from))
+                    || branchfiles.get(to) != null) {
+                continue;
             }
-            if (!currblobs.containsKey(file) && splitblobs.containsKey(file)
-                    && !splitblobs.get(file).equals(branchblobs.get(file))) {
-                writeConflict(currblobs, file, branchblobs);
-                isconflict = true;
+            if (rename.exact()) {
+                mergestage(to, theirs, sparse);
+            } else {
+                writeConflict(to, currfiles.get(to), theirs);
+                conflict = true;
             }
+            renamed.set(PathTable.intern(from));
         }
-        mergeremove(splitblobs, currblobs, branchblobs);
-        if (isconflict) {
-            System.out.println("Encountered a merge conflict.");
+        for (RenameDetector.Rename rename
+                 : renames(splitfiles, branchfiles, renamed)) {
+            String from = rename.from(), to = rename.to();
+            ObjectId ours = currfiles.get(from);
+            if (ours == null || ours.equals(splitfiles.get(from))
+                    || currfiles.get(to) != null) {
+                continue;
+            }
+            if (rename.exact()) {
+                mergestage(to, ours, sparse);
+            } else {
+                writeConflict(to, ours, branchfiles.get(to));
+                conflict = true;
+            }
+            rm(from);
+            renamed.set(PathTable.intern(from));
+            renamed.set(PathTable.intern(to));
         }
-        mergecommit(currcommit, branchcommit, branchname);
-        savevariables();
+        return conflict;
     }
 
-    public void mergeremove(Map<String, String> splitblobs, Map<String,
-            String> currblobs, Map<String, String> branchblobs) {
-        for (String file: splitblobs.keySet()) {
-            if (currblobs.containsKey(file)) {
-                if (splitblobs.get(file).equals(currblobs.get(file))
-                        && !branchblobs.containsKey(file)) {
-                    rm(file);
-                }
+    /** Returns the renames from the files in BEFORE to those in AFTER,
+     * leaving out the paths whose ids are set in SKIP.
+     * @param before files of the older commit
+     * @param after files of the newer commit
+     * @param skip path ids to leave out */
+    private static List<RenameDetector.Rename> renames(
+            FileList before, FileList after, BitSet skip) {
+        HashMap<String, ObjectId> deleted = new HashMap<>();
+        HashMap<String, ObjectId> added = new HashMap<>();
+        FileList.walk(before, after, (path, old, now, unused) -> {
+            if (skip.get(path)) {
+                return;
+            } else if (now == null) {
+                deleted.put(PathTable.path(path), old);
+            } else if (old == null) {
+                added.put(PathTable.path(path), now);
             }
+        });
+        return RenameDetector.detect(deleted, added);
+    }
+
+    /** Stages the contents of the blob with id BLOB as FILE, writing it to
+     * the working directory only if the sparse checkout includes it.
+     * @param file name to stage the contents under
+     * @param blob id of the blob holding the contents
+     * @param sparse the sparse checkout */
+    private void mergestage(String file, ObjectId blob,
+                            SparseCheckout sparse) {
+        Promisor.prefetch(List.of(blob));
+        byte[] contents = ChunkStore.readBytes(
+                Utils.join(Blobs.BLOB_FOLDER, blob.name()));
+        ObjectId newid = Hashing.id(file, contents);
+        File pathtoblob = Utils.join(Blobs.BLOB_FOLDER, newid.name());
+        if (!pathtoblob.exists()) {
+            ChunkStore.write(pathtoblob, contents);
+        }
+        if (sparse.includes(file)) {
+            ChunkStore.writeTo(newid, Utils.join(Main.CWD, file));
         }
+        stage.getRemoved().remove(file);
+        stage.addstaged(file, newid);
+    }
+
+    /** Stages BLOB, the version of FILE at the head of the given branch,
+     * writing it to the working directory only if the sparse checkout
+     * includes it.
+     * @param branchname branch to take the file from
+     * @param file name of the file
+     * @param blob id of the file's blob on the branch
+     * @param sparse the sparse checkout */
+    private void mergetake(String branchname, String file, ObjectId blob,
+                           SparseCheckout sparse) {
+        if (sparse.includes(file)) {
+            checkout(new String[]{"checkout",
+                    branches.get(branchname).name(), "--", file});
+            add(file);
+            return;
+        }
+        stage.getRemoved().remove(file);
+        stage.addstaged(file, blob);
     }
 
     public void mergecommit(Commit currcommit,
                             Commit branchcommit, String branchname) {
-        HashMap<String, String> currblobs = new HashMap<>();
+        HashMap<String, ObjectId> currblobs = new HashMap<>();
         if (currcommit.getBlob() != null) {
             currblobs.putAll(currcommit.getBlob());
         }
@@ -688,11 +1343,12 @@ public class Commands implements Serializable {
                 + headbranch + ".", currcommit.getHashid(),
                 branchcommit.getHashid(), currblobs);
         File commitpath = Utils.join(Commit.COMMIT_FOLDER,
-                newcommit.getHashid());
+                newcommit.getHashid().name());
         Utils.writeObject(commitpath, newcommit);
         branches.put(headbranch, newcommit.getHashid());
         headcommit = branches.get(headbranch);
         commits.add(newcommit.getHashid());
+        MessageIndex.append(newcommit.getHashid(), newcommit.getMessage());
         stage.clearstages();
         savevariables();
     }
@@ -710,22 +1366,13 @@ public class Commands implements Serializable {
             System.out.println("Cannot merge a branch with itself.");
             System.exit(0);
         }
-        Commit currcommit = Utils.readObject(Utils.join(
-                Commit.COMMIT_FOLDER, headcommit), Commit.class);
-        Map<String, String> currblobs = currcommit.getBlob();
-        Commit branchcommit = Utils.readObject(Utils.join(
-                Commit.COMMIT_FOLDER, branches.get(branchname)), Commit.class);
-        Map<String, String> branchblobs = branchcommit.getBlob();
-        List<String> cwdfiles = Utils.plainFilenamesIn(Main.CWD);
-        for (String file: cwdfiles) {
-            if (!currblobs.containsKey(file)
-                    && !stage.getStaged().containsKey(file)
-                    && branchblobs.containsKey(file)) {
-                System.out.println("There is an untracked file in the way; "
-                        + "delete it, or add and commit it first.");
-                System.exit(0);
-            }
-        }
+        SparseCheckout sparse = SparseCheckout.load();
+        Commit currcommit = ObjectCache.readCommit(headcommit);
+        Map<String, ObjectId> currblobs = sparse.select(currcommit.getBlob());
+        Commit branchcommit = ObjectCache.readCommit(branches.get(branchname));
+        Map<String, ObjectId> branchblobs =
+            sparse.select(branchcommit.getBlob());
+        untrackedcheck(currblobs, branchblobs);
         Commit splitpoint = getsplitpoint(currcommit, branchcommit);
         if (splitpoint.getHashid().equals(currcommit.getHashid())) {
             checkout(new String[]{"checkout", branchname});
@@ -740,11 +1387,11 @@ public class Commands implements Serializable {
 
     public Commit getsplitpoint(Commit head, Commit branch) {
         ArrayDeque<Commit> commitsArray = new ArrayDeque<>();
-        HashSet<String> commitset = new HashSet<>();
-        String splitid;
+        HashSet<ObjectId> commitset = new HashSet<>();
+        ObjectId splitid;
         commitsArray.add(branch);
         while (!commitsArray.isEmpty()) {
-            ArrayList<String> branchparents = new ArrayList<>();
+            ArrayList<ObjectId> branchparents = new ArrayList<>();
             Commit newcommit = commitsArray.remove();
             commitset.add(newcommit.getHashid());
             if (branch.getParent() != null) {
@@ -754,9 +1401,7 @@ public class Commands implements Serializable {
                 }
             }
             while (branchparents.size() > 0) {
-                File parentpath = Utils.join(Commit.COMMIT_FOLDER,
-                        branchparents.get(0));
-                Commit parent = Utils.readObject(parentpath, Commit.class);
+                Commit parent = ObjectCache.readCommit(branchparents.get(0));
                 commitsArray.add(parent);
                 branch = parent;
                 branchparents.remove(0);
@@ -768,10 +1413,9 @@ public class Commands implements Serializable {
             Commit newcommit = bfs.remove();
             if (commitset.contains(newcommit.getHashid())) {
                 splitid = newcommit.getHashid();
-                File pathtosplit = Utils.join(Commit.COMMIT_FOLDER, splitid);
-                return Utils.readObject(pathtosplit, Commit.class);
+                return ObjectCache.readCommit(splitid);
             } else {
-                ArrayList<String> headparents = new ArrayList<>();
+                ArrayList<ObjectId> headparents = new ArrayList<>();
                 if (head.getParent() != null) {
                     headparents.add(head.getParent());
                     if (head.getSecondparent() != null) {
@@ -779,9 +1423,7 @@ public class Commands implements Serializable {
                     }
                 }
                 while (headparents.size() > 0) {
-                    File parentpath = Utils.join(Commit.COMMIT_FOLDER,
-                            headparents.get(0));
-                    Commit parent = Utils.readObject(parentpath, Commit.class);
+                    Commit parent = ObjectCache.readCommit(headparents.get(0));
                     bfs.add(parent);
                     head = parent;
                     headparents.remove(0);
@@ -791,31 +1433,233 @@ public class Commands implements Serializable {
         return null;
     }
 
-    public void writeConflict(Map<String, String> currentblob, String filename,
-                              Map<String, String> branchblob) {
-        String headcontent = "";
-        String branchcontent = "";
+    /** Writes the conflicted version of FILENAME to the working directory
+     * and stages it, with the contents of blob OURS from the head and of
+     * blob THEIRS from the given branch; either is null if the file is
+     * absent on that side.
+     * @param filename name of the conflicted file
+     * @param ours blob id of the file at the head
+     * @param theirs blob id of the file on the given branch */
+    public void writeConflict(String filename, ObjectId ours,
+                              ObjectId theirs) {
         String topline = "<<<<<<< HEAD\n";
         String middleline = "=======\n";
         String endline = ">>>>>>>\n";
-        File current = Utils.join(Blobs.BLOB_FOLDER,
-                currentblob.get(filename));
-        if (current.exists()) {
-            headcontent = Utils.readContentsAsString(current);
-        }
-        if (branchblob.containsKey(filename)) {
-            File branch = Utils.join(Blobs.BLOB_FOLDER,
-                    branchblob.get(filename));
-            if (branch.exists()) {
-                branchcontent = Utils.readContentsAsString(branch);
-            }
-        }
+        String headcontent = conflictside(ours);
+        String branchcontent = conflictside(theirs);
         String finalstring = topline + headcontent
                 + middleline + branchcontent + endline;
+        byte[] contents = finalstring.getBytes(StandardCharsets.UTF_8);
         File pathtofile = Utils.join(Main.CWD, filename);
-        Utils.writeContents(pathtofile, finalstring);
-        Blobs blobfile = new Blobs(filename, finalstring);
-        stage.addstaged(filename, blobfile.getId());
+        Utils.restrictedDelete(pathtofile);
+        Utils.writeContents(pathtofile, contents);
+        ObjectId blobid = Hashing.id(filename, contents);
+        File pathtoblob = Utils.join(Blobs.BLOB_FOLDER, blobid.name());
+        if (!pathtoblob.exists()) {
+            ChunkStore.write(pathtoblob, contents);
+        }
+        stage.addstaged(filename, blobid);
+    }
+
+    /** Returns the contents of blob ID for one side of a conflict, or the
+     * empty string if ID is null or the blob is not stored.
+     * @param id blob id of the file on that side */
+    private static String conflictside(ObjectId id) {
+        if (id == null || !Utils.join(Blobs.BLOB_FOLDER, id.name()).exists()) {
+            return "";
+        }
+        return ObjectCache.readBlob(id);
+    }
+
+    /** Saves the given login information under the given remote name.
+     * Attempts to push or pull from the given remote name will then
+     * attempt to use this .gitlet directory.
+     * @param name name of the remote
+     * @param dir path to the remote's .gitlet directory, with / as the
+     *            separator */
+    public void addremote(String name, String dir) {
+        if (remotes == null) {
+            remotes = new TreeMap<>();
+        }
+        if (remotes.containsKey(name)) {
+            System.out.println("A remote with that name already exists.");
+            System.exit(0);
+        }
+        remotes.put(name, dir.replace("/", File.separator));
+        savevariables();
+    }
+
+    /** Removes information associated with the given remote name.
+     * @param name name of the remote */
+    public void rmremote(String name) {
+        remotedir(name);
+        remotes.remove(name);
+        savevariables();
+    }
+
+    /** Copies the commits and blobs of the given branch of the remote
+     * that this repository lacks, and points the branch
+     * [remote name]/[remote branch name] at the remote branch's head.
+     * Only objects not already present are sent, as one stream.
+     * @param name name of the remote
+     * @param remotebranch branch of the remote to fetch */
+    public void fetch(String name, String remotebranch) {
+        File remote = remotedir(name);
+        Commands other = readvariables(remote);
+        ObjectId tip = other.branches.get(remotebranch);
+        if (tip == null) {
+            System.out.println("That remote does not have that branch.");
+            System.exit(0);
+        }
+        Transfer transfer = new Transfer(remote, Main.GITLET_FOLDER);
+        List<ObjectId> fetched = transfer.negotiate(List.of(tip));
+        transfer.run();
+        for (ObjectId id: fetched) {
+            commits.add(id);
+            MessageIndex.append(id, ObjectCache.readCommit(id).getMessage());
+        }
+        branches.put(name + "/" + remotebranch, tip);
+        savevariables();
+    }
+
+    /** Appends the current branch's commits to the end of the given
+     * branch at the given remote, sending only the commits and blobs the
+     * remote lacks. The remote branch's head must be in the history of
+     * the current head.
+     * @param name name of the remote
+     * @param remotebranch branch of the remote to push to */
+    public void push(String name, String remotebranch) {
+        File remote = remotedir(name);
+        RepoLock.acquire(remote);
+        Commands other = readvariables(remote);
+        ObjectId remotehead = other.branches.get(remotebranch);
+        Reachability index = Reachability.load();
+        Bitmap objects = index.reach(headcommit);
+        if (remotehead != null && !isancestor(index, objects, remotehead)) {
+            System.out.println("Please pull down remote changes "
+                    + "before pushing.");
+            System.exit(0);
+        }
+        if (remotehead != null) {
+            objects = objects.andNot(index.reach(remotehead));
+        }
+        Transfer transfer = new Transfer(Main.GITLET_FOLDER, remote);
+        List<ObjectId> sent = transfer.enumerate(index, objects);
+        transfer.run();
+        index.remember(List.of(headcommit));
+        for (ObjectId id: sent) {
+            other.commits.add(id);
+            MessageIndex.append(remote, id,
+                    ObjectCache.readCommit(id).getMessage());
+        }
+        other.branches.put(remotebranch, headcommit);
+        if (remotebranch.equals(other.headbranch)) {
+            other.headcommit = headcommit;
+        }
+        other.savevariables(remote);
+    }
+
+    /** Fetches the given branch of the remote as for fetch, then merges
+     * [remote name]/[remote branch name] into the current branch.
+     * @param name name of the remote
+     * @param remotebranch branch of the remote to pull */
+    public void pull(String name, String remotebranch) {
+        fetch(name, remotebranch);
+        merge(name + "/" + remotebranch);
+    }
+
+    /** Creates a repository in the current directory holding every
+     * branch of the repository whose .gitlet directory is given, which
+     * becomes the remote named origin, and checks out its current branch.
+     * The object files are hard-linked rather than copied where the file
+     * system allows, since they never change once written; refs, the
+     * stage and the indexes are written fresh.
+     * clone --filter=blob:none [dir] copies only the commits; the blobs
+     * are copied from [dir] the first time checkout, reset or merge
+     * needs them, and kept from then on.
+     * @param args the clone command, its option and the .gitlet directory */
+    public void clone(String... args) {
+        boolean partial = args.length == 3
+                && args[1].equals("--filter=blob:none");
+        if (args.length != 2 && !partial) {
+            System.out.println("Incorrect operands.");
+            System.exit(0);
+        }
+        if (Main.GITLET_FOLDER.exists()) {
+            System.out.println("A Gitlet version-control system "
+                    + "already exists in the current directory.");
+            System.exit(0);
+        }
+        File remote = new File(args[args.length - 1].replace("/",
+                File.separator));
+        Commands other = readvariables(remote);
+        Commit tip = Utils.readObject(Utils.join(remote,
+                Commit.COMMIT_FOLDER.getName(), other.headcommit.name()),
+                Commit.class);
+        for (String file: tip.getBlob().keySet()) {
+            if (Utils.join(Main.CWD, file).isFile()) {
+                System.out.println("There is an untracked file in the way; "
+                        + "delete it, or add and commit it first.");
+                System.exit(0);
+            }
+        }
+        Commit.COMMIT_FOLDER.mkdirs();
+        Blobs.BLOB_FOLDER.mkdirs();
+        Staging.STAGING_FOLDER.mkdirs();
+        Hashing.setRepository(Hashing.of(remote));
+        if (partial) {
+            Transfer transfer = new Transfer(remote, Main.GITLET_FOLDER);
+            transfer.skipBlobs();
+            Promisor.set(remote);
+            commits.addAll(transfer.negotiate(other.branches.values()));
+            transfer.run();
+        } else {
+            Transfer.link(remote, Main.GITLET_FOLDER);
+            commits.addAll(other.commits);
+        }
+        branches.putAll(other.branches);
+        headbranch = other.headbranch;
+        headcommit = other.headcommit;
+        stage = new Staging();
+        Utils.writeObject(Utils.join(Staging.STAGING_FOLDER, "stage"), stage);
+        remotes = new TreeMap<>();
+        remotes.put("origin", remote.getPath());
+        Promisor.prefetch(tip.getBlob().values());
+        for (Map.Entry<String, ObjectId> e: tip.getBlob().entrySet()) {
+            ChunkStore.writeTo(e.getValue(),
+                    Utils.join(Main.CWD, e.getKey()));
+        }
+        MessageIndex.rebuild(commits);
+        savevariables();
+    }
+
+    /** Returns the .gitlet directory of the remote named NAME, exiting
+     * if there is no such remote.
+     * @param name name of the remote */
+    private File remotedir(String name) {
+        if (remotes == null || !remotes.containsKey(name)) {
+            System.out.println("A remote with that name does not exist.");
+            System.exit(0);
+        }
+        File result = new File(remotes.get(name));
+        if (!Hashing.of(result).name().equals(Hashing.repository().name())) {
+            System.out.println("That remote uses a different hash.");
+            System.exit(0);
+        }
+        return result;
+    }
+
+    /** Returns true iff the commit with id ANCESTOR is in the history
+     * whose objects are REACHABLE, as given by INDEX. Unlike a walk that
+     * stops at commits older than ANCESTOR, this does not depend on the
+     * clocks the commits were made with.
+     * @param index the reachability index
+     * @param reachable objects reachable from the possible descendant
+     * @param ancestor possible ancestor */
+    private boolean isancestor(Reachability index, Bitmap reachable,
+                               ObjectId ancestor) {
+        int pos = index.position(ancestor);
+        return pos >= 0 && reachable.get(pos);
     }
 
 }
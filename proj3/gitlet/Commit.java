@@ -1,39 +1,129 @@
 package gitlet;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 
 public class Commit implements Serializable {
+    /** Fixed so that repositories written by earlier versions
+     * stay readable as methods are added. */
+    private static final long serialVersionUID = 6465511285924367906L;
     /** Directory for the commits. */
     static final File COMMIT_FOLDER = Utils.join(Main.GITLET_FOLDER, "commits");
+    /** Format of commit timestamps. */
+    static final String TIME_FORMAT = "EEE MMM d HH:mm:ss yyyy Z";
     /** Message of the commit. */
     private String message;
     /** Timestamp of the commit. */
     private String timestamp;
-    /** Hash ID of the commit. */
-    private String hashid;
+    /** Hash ID of the commit.  Not serialized, so that a commit file holds
+     * exactly the bytes its id is the hash of; set from the file name when
+     * the commit is read. */
+    private transient ObjectId hashid;
     /** Parent of the commit. */
-    private String parent;
+    private transient ObjectId parentid;
     /** Second parent of the merge commit. */
-    private String secondparent;
-    /** Map of blobs of the commit. */
+    private transient ObjectId secondparentid;
+    /** The files of the commit and their blob ids. */
+    private transient FileList files;
+    /** The timestamp in milliseconds since the epoch, or null until
+     * getTime first parses it. */
+    private transient Long time;
+    /** Parent, second parent and files as hex ids, as commit files store
+     * them.  Only set in the copy that writeReplace makes for writing. */
+    private String parent, secondparent;
+    /** See parent. */
     private Map<String, String> blob;
 
 
-    public Commit(String themessage, String theparent,
-                  String thesecondparent, Map<String, String> theblob) {
+    public Commit(String themessage, ObjectId theparent,
+                  ObjectId thesecondparent, Map<String, ObjectId> theblob) {
+        this(themessage, theparent, thesecondparent, theblob, new Date());
+    }
+
+    public Commit(String themessage, ObjectId theparent,
+                  ObjectId thesecondparent, Map<String, ObjectId> theblob,
+                  Date thetime) {
+        this(themessage, theparent, thesecondparent, theblob,
+                new SimpleDateFormat(TIME_FORMAT).format(thetime));
+    }
+
+    /** A commit made at the time written as THETIMESTAMP, in TIME_FORMAT,
+     * as fast-import reads it. */
+    Commit(String themessage, ObjectId theparent,
+           ObjectId thesecondparent, Map<String, ObjectId> theblob,
+           String thetimestamp) {
         this.message = themessage;
-        SimpleDateFormat timeformat = new SimpleDateFormat(
-                "EEE MMM d HH:mm:ss yyyy Z");
-        Date currenttime = new Date();
-        this.timestamp = timeformat.format(currenttime);
-        this.parent = theparent;
-        this.secondparent = thesecondparent;
-        this.blob = theblob;
-        this.hashid = Utils.sha1((Object) Utils.serialize(this));
+        this.timestamp = thetimestamp;
+        this.parentid = theparent;
+        this.secondparentid = thesecondparent;
+        this.files = FileList.of(theblob);
+        this.hashid = Hashing.id((Object) Utils.serialize(this));
+    }
+
+    /** Returns a copy of COMMIT in the form commit files store. Files are
+     * added in order of name, so that the bytes, and so the id, depend
+     * only on what the commit holds.
+     * @param commit commit to copy */
+    private Commit(Commit commit) {
+        message = commit.message;
+        timestamp = commit.timestamp;
+        parent = commit.parentid == null ? null : commit.parentid.name();
+        secondparent = commit.secondparentid == null ? null
+            : commit.secondparentid.name();
+        blob = new HashMap<>();
+        for (Map.Entry<String, ObjectId> e
+                 : new TreeMap<>(commit.files.asMap()).entrySet()) {
+            blob.put(e.getKey(), e.getValue().name());
+        }
+    }
+
+    /** Returns the commit with id ID, read from the commit folder.
+     * @param id id of the commit */
+    static Commit read(ObjectId id) {
+        Commit result = Utils.readObject(
+                Utils.join(COMMIT_FOLDER, id.name()), Commit.class);
+        result.hashid = id;
+        return result;
+    }
+
+    /** Writes the hex form of this commit in its place, so that commit
+     * files keep the format, and ids the bytes, they always had. */
+    private Object writeReplace() {
+        return new Commit(this);
+    }
+
+    /** Reads a commit in the form commit files store and converts its ids.
+     * @param in stream to read from */
+    private void readObject(ObjectInputStream in)
+        throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        try {
+            parentid = parent == null ? null : ObjectId.fromHex(parent);
+            secondparentid = secondparent == null ? null
+                : ObjectId.fromHex(secondparent);
+            String[] names = new String[blob.size()];
+            ObjectId[] blobs = new ObjectId[blob.size()];
+            int n = 0;
+            for (Map.Entry<String, String> e : blob.entrySet()) {
+                names[n] = e.getKey();
+                blobs[n] = ObjectId.fromHex(e.getValue());
+                n += 1;
+            }
+            files = FileList.of(names, blobs);
+        } catch (IllegalArgumentException excp) {
+            throw new InvalidObjectException(excp.getMessage());
+        }
+        parent = secondparent = null;
+        blob = null;
     }
 
     public String getMessage() {
@@ -44,20 +134,42 @@ public class Commit implements Serializable {
         return this.timestamp;
     }
 
-    public String getHashid() {
+    /** Returns the timestamp of the commit in milliseconds
+     * since the epoch. It is parsed once, on first use, since walks
+     * in date order compare the times of commits many times over. */
+    public long getTime() {
+        if (time == null) {
+            try {
+                time = new SimpleDateFormat(TIME_FORMAT).parse(timestamp)
+                    .getTime();
+            } catch (ParseException excp) {
+                throw Utils.error("Bad timestamp in commit %s.", hashid);
+            }
+        }
+        return time;
+    }
+
+    public ObjectId getHashid() {
         return this.hashid;
     }
 
-    public String getParent() {
-        return this.parent;
+    public ObjectId getParent() {
+        return this.parentid;
+    }
+
+    public ObjectId getSecondparent() {
+        return this.secondparentid;
     }
 
-    public String getSecondparent() {
-        return this.secondparent;
+    /** Returns a read-only map of the files of the commit to their blob
+     * ids. */
+    public Map<String, ObjectId> getBlob() {
+        return this.files.asMap();
     }
 
-    public Map<String, String> getBlob() {
-        return this.blob;
+    /** Returns the files of the commit and their blob ids. */
+    public FileList getFiles() {
+        return this.files;
     }
 
 }
@@ -0,0 +1,232 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Objects;
+
+/** The shape of the history, kept apart from the commits themselves: for
+ *  each commit, its parents, its time and a Bloom filter of the paths it
+ *  changed relative to its first parent.  A path-limited walk reads only
+ *  these entries and decodes a commit only when its filter says it may
+ *  have touched the path, which it always does when it did.  Entries are
+ *  computed the first time a commit is visited and appended to
+ *  .gitlet/commit-graph, so each commit is diffed against its parent at
+ *  most once.
+ *  @author Daniel Ngo
+ */
+class CommitGraph {
+
+    /** File holding the entries, one record per commit. */
+    static final File GRAPH_FILE = Utils.join(Main.GITLET_FOLDER,
+            "commit-graph");
+    /** Commits that change more paths than this get no filter and are
+     *  always diffed. */
+    static final int MAX_PATHS = 512;
+    /** Bits of filter per changed path. */
+    static final int BITS_PER_PATH = 10;
+    /** Number of bits set per path. */
+    static final int HASHES = 7;
+
+    /** What the graph records about one commit. */
+    private static class Entry {
+        /** Ids of the parents, or null. */
+        private ObjectId parent, second;
+        /** Commit time in milliseconds. */
+        private long time;
+        /** Filter of the changed paths, or null if there are too many. */
+        private long[] bloom;
+    }
+
+    /** Return the commit graph of this repository. */
+    static CommitGraph load() {
+        CommitGraph result = new CommitGraph();
+        if (!GRAPH_FILE.exists()) {
+            return result;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(GRAPH_FILE)))) {
+            while (in.available() > 0) {
+                ObjectId id = ObjectId.fromHex(in.readUTF());
+                Entry entry = new Entry();
+                entry.parent = ObjectId.parse(in.readUTF());
+                entry.second = ObjectId.parse(in.readUTF());
+                entry.time = in.readLong();
+                int words = in.readInt();
+                if (words >= 0) {
+                    entry.bloom = new long[words];
+                    for (int i = 0; i < words; i += 1) {
+                        entry.bloom[i] = in.readLong();
+                    }
+                }
+                result._entries.put(id, entry);
+            }
+        } catch (EOFException excp) {
+            result._rewrite = true;
+        } catch (IOException | IllegalArgumentException excp) {
+            throw Utils.error("Cannot read commit graph: %s",
+                    excp.getMessage());
+        }
+        return result;
+    }
+
+    /** Return the id of the first parent of the commit with id ID, or
+     *  null if it has none. */
+    ObjectId parent(ObjectId id) {
+        return entry(id).parent;
+    }
+
+    /** Return the id of the second parent of the commit with id ID, or
+     *  null if it has none. */
+    ObjectId second(ObjectId id) {
+        return entry(id).second;
+    }
+
+    /** Return the time of the commit with id ID. */
+    long time(ObjectId id) {
+        return entry(id).time;
+    }
+
+    /** Return false if the commit with id ID certainly did not change
+     *  PATH relative to its first parent, and true if it may have. */
+    boolean mayChange(ObjectId id, String path) {
+        long[] bloom = entry(id).bloom;
+        if (bloom == null) {
+            return true;
+        }
+        int h1 = path.hashCode(), h2 = mix(h1) | 1;
+        long bits = (long) bloom.length * 64;
+        for (int i = 0; i < HASHES; i += 1) {
+            long bit = Math.floorMod(h1 + (long) i * h2, bits);
+            if ((bloom[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return true iff the commit with id ID added, changed or removed
+     *  PATH relative to its first parent. */
+    boolean changes(ObjectId id, String path) {
+        if (!mayChange(id, path)) {
+            return false;
+        }
+        ObjectId parent = parent(id);
+        ObjectId before = parent == null ? null
+            : ObjectCache.readCommit(parent).getBlob().get(path);
+        return !Objects.equals(before,
+                ObjectCache.readCommit(id).getBlob().get(path));
+    }
+
+    /** Append the entries computed since loading to GRAPH_FILE, unless
+     *  another process holds the repository's write lock. */
+    void save() {
+        if (_added.isEmpty() && !_rewrite || !RepoLock.tryAcquire()) {
+            return;
+        }
+        try {
+            write();
+        } finally {
+            RepoLock.release();
+        }
+    }
+
+    /** Append the entries computed since loading to GRAPH_FILE, or rewrite
+     *  it with all of them, with the write lock held. */
+    private void write() {
+        ArrayList<ObjectId> ids = _rewrite
+            ? new ArrayList<>(_entries.keySet()) : _added;
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(GRAPH_FILE,
+                        !_rewrite)))) {
+            for (ObjectId id : ids) {
+                Entry entry = _entries.get(id);
+                out.writeUTF(id.name());
+                out.writeUTF(entry.parent == null ? "" : entry.parent.name());
+                out.writeUTF(entry.second == null ? "" : entry.second.name());
+                out.writeLong(entry.time);
+                if (entry.bloom == null) {
+                    out.writeInt(-1);
+                } else {
+                    out.writeInt(entry.bloom.length);
+                    for (long word : entry.bloom) {
+                        out.writeLong(word);
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write commit graph: %s",
+                    excp.getMessage());
+        }
+        _added.clear();
+        _rewrite = false;
+    }
+
+    /** Return the entry of the commit with id ID, computing it if this is
+     *  its first visit. */
+    private Entry entry(ObjectId id) {
+        Entry result = _entries.get(id);
+        if (result == null) {
+            result = compute(id);
+            _entries.put(id, result);
+            _added.add(id);
+        }
+        return result;
+    }
+
+    /** Return a new entry for the commit with id ID. */
+    private static Entry compute(ObjectId id) {
+        Commit commit = ObjectCache.readCommit(id);
+        Entry result = new Entry();
+        result.parent = commit.getParent();
+        result.second = commit.getSecondparent();
+        result.time = commit.getTime();
+        FileList before = result.parent == null ? FileList.EMPTY
+            : ObjectCache.readCommit(result.parent).getFiles();
+        ArrayList<String> changed = new ArrayList<>();
+        FileList.walk(before, commit.getFiles(), (path, old, now, unused) -> {
+            if (!Objects.equals(old, now)) {
+                changed.add(PathTable.path(path));
+            }
+        });
+        if (changed.size() <= MAX_PATHS) {
+            int words = Math.max(1,
+                    (changed.size() * BITS_PER_PATH + 63) / 64);
+            result.bloom = new long[words];
+            long bits = (long) words * 64;
+            for (String path : changed) {
+                int h1 = path.hashCode(), h2 = mix(h1) | 1;
+                for (int i = 0; i < HASHES; i += 1) {
+                    long bit = Math.floorMod(h1 + (long) i * h2, bits);
+                    result.bloom[(int) (bit >>> 6)] |= 1L << bit;
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return a second hash derived from H. */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    }
+
+    /** Entries by commit id. */
+    private final HashMap<ObjectId, Entry> _entries = new HashMap<>();
+    /** Ids of the entries not yet in GRAPH_FILE. */
+    private final ArrayList<ObjectId> _added = new ArrayList<>();
+    /** True iff GRAPH_FILE ends in a partial record and must be rewritten
+     *  whole. */
+    private boolean _rewrite;
+}
@@ -0,0 +1,39 @@
+package gitlet;
+
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/** Scans over many commits at once.  Commits are read and decoded across
+ *  all cores in the common ForkJoin pool, a batch at a time, and the
+ *  results are handed back strictly in the order of the ids given, so
+ *  output is the same as that of a sequential loop.
+ *  @author Daniel Ngo
+ */
+class CommitScan {
+
+    /** Number of commits decoded per batch.  Bounds the memory held by
+     *  results that are waiting to be consumed. */
+    static final int BATCH_SIZE = 4096;
+
+    /** Apply MAP to each of the commits with ids IDS in parallel, and pass
+     *  the results to SINK in the order of IDS.  Commits are read straight
+     *  from disk rather than through ObjectCache, so that one scan does not
+     *  flush everything else out of the cache. */
+    static <T> void forEachOrdered(List<ObjectId> ids,
+                                   Function<Commit, T> map,
+                                   Consumer<T> sink) {
+        for (int start = 0; start < ids.size(); start += BATCH_SIZE) {
+            List<ObjectId> batch = ids.subList(start,
+                    Math.min(ids.size(), start + BATCH_SIZE));
+            Object[] results = batch.parallelStream()
+                .map(id -> map.apply(Commit.read(id)))
+                .toArray();
+            for (Object result : results) {
+                @SuppressWarnings("unchecked")
+                T item = (T) result;
+                sink.accept(item);
+            }
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+/** Writes the history reachable from the branches as a stream in the
+ *  format of git fast-import, which FastImport reads back to the same
+ *  commit ids.  Commits come parents first, each after the blobs it
+ *  introduces, with its changes from its first parent as M and D lines, and
+ *  each blob is written once, under a mark.  Blobs are read across all
+ *  cores in the common ForkJoin pool, a batch of commits at a time, while
+ *  the previous batch is written; a batch holds at most BATCH_BYTES of blob
+ *  contents, and a chunked blob is never held whole but copied a chunk at
+ *  a time.  What is kept for the whole history is a mark per commit and
+ *  blob id, not the files of commits.
+ *
+ *  Commits without parents (the initial commit) are not written, so their
+ *  children start new branches, as FastImport expects.  Branches whose
+ *  head is the initial commit are left out.
+ *  @author Daniel Ngo
+ */
+class FastExport {
+
+    /** Most blob bytes read per batch. */
+    static final long BATCH_BYTES = Archive.BATCH_BYTES;
+    /** Most commits per batch. */
+    static final int BATCH_SIZE = 256;
+
+    /** Mode given to every file. */
+    private static final String MODE = "100644";
+
+    /** A blob to write before the commit that introduces it. */
+    private static final class Blob {
+        /** The blob with id ID, written under MARK. */
+        Blob(ObjectId id, int mark) {
+            _file = Utils.join(Blobs.BLOB_FOLDER, id.name());
+            _mark = mark;
+        }
+
+        /** The blob file. */
+        private final File _file;
+        /** Its mark. */
+        private final int _mark;
+        /** Its contents, or null if it is chunked and copied by the
+         *  writer. */
+        private byte[] _data;
+    }
+
+    /** One commit of a batch, as it is written. */
+    private static final class Record {
+        /** The text of the commit record, up to its file changes. */
+        private String _header;
+        /** Its M and D lines. */
+        private final StringBuilder _changes = new StringBuilder();
+        /** The blobs it is the first to use. */
+        private final List<Blob> _blobs = new ArrayList<>();
+    }
+
+    /** A stream of the history of the branches BRANCHES, a map from
+     *  branch names to commit ids. */
+    FastExport(Map<String, ObjectId> branches) {
+        _branches = new TreeMap<>(branches);
+    }
+
+    /** Write the stream to OUT. */
+    void write(OutputStream out) {
+        order();
+        try {
+            int start = 0;
+            CompletableFuture<List<Record>> next = prepare(start);
+            while (start < _order.size()) {
+                List<Record> batch = next.join();
+                start += batch.size();
+                next = prepare(start);
+                for (Record record : batch) {
+                    write(out, record);
+                }
+            }
+            for (Map.Entry<String, ObjectId> e : _branches.entrySet()) {
+                Integer mark = _commitmarks.get(e.getValue());
+                if (mark != null) {
+                    out.write(String.format("reset %s%nfrom :%d%n%n",
+                            ref(e.getKey()), mark)
+                              .getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            out.flush();
+        } catch (IOException excp) {
+            throw Utils.error("Cannot export: %s", excp.getMessage());
+        }
+    }
+
+    /** Put the commits reachable from the branches, less those without
+     *  parents, in _order, each after its parents, and the branch each was
+     *  first reached from in _refs.  Parents come from the commit graph, so
+     *  commits already in it are not read here. */
+    private void order() {
+        CommitGraph graph = CommitGraph.load();
+        HashSet<ObjectId> done = new HashSet<>();
+        ArrayDeque<ObjectId> stack = new ArrayDeque<>();
+        for (Map.Entry<String, ObjectId> e : _branches.entrySet()) {
+            stack.push(e.getValue());
+            while (!stack.isEmpty()) {
+                ObjectId id = stack.peek();
+                if (done.contains(id)) {
+                    stack.pop();
+                    continue;
+                }
+                ObjectId[] ofid = {graph.parent(id), graph.second(id)};
+                boolean ready = true;
+                for (int k = ofid.length - 1; k >= 0; k -= 1) {
+                    if (ofid[k] != null && !done.contains(ofid[k])) {
+                        stack.push(ofid[k]);
+                        ready = false;
+                    }
+                }
+                if (ready) {
+                    stack.pop();
+                    done.add(id);
+                    if (ofid[0] != null) {
+                        _order.add(id);
+                        _refs.add(e.getKey());
+                    }
+                }
+            }
+        }
+        graph.save();
+    }
+
+    /** Start building the records of the batch of commits from index
+     *  START of _order, and return the result, which completes when their
+     *  blobs have been read. */
+    private CompletableFuture<List<Record>> prepare(int start) {
+        return CompletableFuture.supplyAsync(() -> {
+            List<Record> batch = new ArrayList<>();
+            List<Blob> blobs = new ArrayList<>();
+            long bytes = 0;
+            for (int i = start; i < _order.size()
+                     && batch.size() < BATCH_SIZE
+                     && (batch.isEmpty() || bytes <= BATCH_BYTES); i += 1) {
+                Record record = record(_order.get(i), _refs.get(i));
+                for (Blob blob : record._blobs) {
+                    bytes += blob._file.length();
+                }
+                blobs.addAll(record._blobs);
+                batch.add(record);
+            }
+            List<ObjectId> ids = new ArrayList<>();
+            for (Blob blob : blobs) {
+                ids.add(ObjectId.fromHex(blob._file.getName()));
+            }
+            Promisor.prefetch(ids);
+            blobs.parallelStream().forEach(blob -> {
+                if (!ChunkStore.isManifest(blob._file)) {
+                    blob._data = Utils.readContents(blob._file);
+                }
+            });
+            return batch;
+        });
+    }
+
+    /** Return the record of the commit with id ID on the branch BRANCH,
+     *  giving marks to it and to the blobs it is the first to use. */
+    private Record record(ObjectId id, String branch) {
+        Commit commit = ObjectCache.readCommit(id);
+        Integer from = _commitmarks.get(commit.getParent());
+        Integer merge = commit.getSecondparent() == null ? null
+            : _commitmarks.get(commit.getSecondparent());
+        FileList parent = from == null ? FileList.EMPTY
+            : ObjectCache.readCommit(commit.getParent()).getFiles();
+        Record record = new Record();
+        TreeMap<String, ObjectId> changed = new TreeMap<>();
+        FileList.walk(parent, commit.getFiles(), (path, before, after, x) -> {
+                if (!Objects.equals(before, after)) {
+                    changed.put(PathTable.path(path), after);
+                }
+            });
+        for (Map.Entry<String, ObjectId> e : changed.entrySet()) {
+            ObjectId blob = e.getValue();
+            if (blob == null) {
+                record._changes.append("D ").append(quote(e.getKey()))
+                    .append('\n');
+                continue;
+            }
+            Integer mark = _blobmarks.get(blob);
+            if (mark == null) {
+                mark = _nextmark++;
+                _blobmarks.put(blob, mark);
+                record._blobs.add(new Blob(blob, mark));
+            }
+            record._changes.append("M ").append(MODE).append(" :")
+                .append(mark).append(' ').append(quote(e.getKey()))
+                .append('\n');
+        }
+        int mark = _nextmark++;
+        _commitmarks.put(id, mark);
+        String timestamp = commit.getTimestamp();
+        StringBuilder header = new StringBuilder();
+        if (from == null) {
+            header.append("reset ").append(ref(branch)).append('\n');
+        }
+        header.append("commit ").append(ref(branch)).append('\n')
+            .append("mark :").append(mark).append('\n')
+            .append("committer gitlet <> ").append(commit.getTime() / 1000)
+            .append(' ')
+            .append(timestamp.substring(timestamp.lastIndexOf(' ') + 1))
+            .append('\n');
+        byte[] message = (commit.getMessage() + "\n")
+            .getBytes(StandardCharsets.UTF_8);
+        header.append("data ").append(message.length).append('\n')
+            .append(commit.getMessage()).append('\n');
+        if (from != null) {
+            header.append("from :").append(from).append('\n');
+        }
+        if (merge != null) {
+            header.append("merge :").append(merge).append('\n');
+        }
+        record._header = header.toString();
+        return record;
+    }
+
+    /** Write RECORD and the blobs before it to OUT. */
+    private void write(OutputStream out, Record record) throws IOException {
+        for (Blob blob : record._blobs) {
+            List<String> chunks = null;
+            long size;
+            if (blob._data != null) {
+                size = blob._data.length;
+            } else {
+                byte[] manifest = Utils.readContents(blob._file);
+                chunks = ChunkStore.chunks(manifest);
+                size = ChunkStore.logicalSize(manifest);
+            }
+            out.write(String.format("blob%nmark :%d%ndata %d%n", blob._mark,
+                    size).getBytes(StandardCharsets.UTF_8));
+            if (chunks == null) {
+                out.write(blob._data);
+                blob._data = null;
+            } else {
+                for (String chunk : chunks) {
+                    Files.copy(Utils.join(ChunkStore.CHUNK_FOLDER, chunk)
+                               .toPath(), out);
+                }
+            }
+            out.write('\n');
+        }
+        out.write(record._header.getBytes(StandardCharsets.UTF_8));
+        out.write(record._changes.toString().getBytes(StandardCharsets.UTF_8));
+        out.write('\n');
+    }
+
+    /** Return the ref of the branch BRANCH. */
+    private static String ref(String branch) {
+        return "refs/heads/" + branch;
+    }
+
+    /** Return PATH as a file change names it: as it is, unless it starts
+     *  with a quote or holds a control character, in which case it is
+     *  quoted in the style of C. */
+    static String quote(String path) {
+        boolean plain = !path.startsWith("\"");
+        for (int i = 0; plain && i < path.length(); i += 1) {
+            plain = path.charAt(i) >= ' ' && path.charAt(i) != 0x7f;
+        }
+        if (plain) {
+            return path;
+        }
+        StringBuilder result = new StringBuilder("\"");
+        for (char c : path.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                result.append('\\').append(c);
+            } else if (c == '\n') {
+                result.append("\\n");
+            } else if (c < ' ' || c == 0x7f) {
+                result.append(String.format("\\%03o", (int) c));
+            } else {
+                result.append(c);
+            }
+        }
+        return result.append('"').toString();
+    }
+
+    /** Branches exported, by name. */
+    private final TreeMap<String, ObjectId> _branches;
+    /** Commits to write, parents first. */
+    private final List<ObjectId> _order = new ArrayList<>();
+    /** The branch each commit of _order is written on. */
+    private final List<String> _refs = new ArrayList<>();
+    /** Marks of the commits and blobs given marks so far. */
+    private final HashMap<ObjectId, Integer> _commitmarks = new HashMap<>();
+    /** See _commitmarks. */
+    private final HashMap<ObjectId, Integer> _blobmarks = new HashMap<>();
+    /** The next mark to give. */
+    private int _nextmark = 1;
+}
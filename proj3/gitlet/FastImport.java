@@ -0,0 +1,531 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+/** Loads history in bulk from a stream in the format of git fast-import,
+ *  as git fast-export and gitlet fast-export write it.  Blobs and commits
+ *  go straight into the object folders, commit ids come from the real
+ *  Commit format, and nothing else is written until the stream ends, when
+ *  the caller moves the branches and extends the commit list and message
+ *  index once, rather than after every commit as add and commit do.  A
+ *  gitlet blob id covers its file name, so the contents of blob records
+ *  wait in SCRATCH_FILE until a commit names the file they belong to.
+ *
+ *  The commands read are blob, commit, reset and done; tag, feature,
+ *  option, progress and checkpoint are skipped.  A commit may have mark,
+ *  original-oid, author (skipped), committer, data, from, one merge, and
+ *  the file changes M, D, R, C and deleteall.  Committer times must be in
+ *  the raw format.  A commit with no parent becomes a child of the
+ *  repository's initial commit, and files must not be in subdirectories.
+ *  @author Daniel Ngo
+ */
+class FastImport {
+
+    /** Scratch file holding the contents of blob records. */
+    static final File SCRATCH_FILE = Utils.join(Main.GITLET_FOLDER,
+            "fast-import.tmp");
+    /** Mode of a git submodule, whose entries are skipped. */
+    private static final String SUBMODULE = "160000";
+
+    /** An import of the stream IN into a repository whose branches are
+     *  BRANCHES. */
+    FastImport(InputStream in, Map<String, ObjectId> branches) {
+        _in = new BufferedInputStream(in, 1 << 16);
+        _original = new TreeMap<>(branches);
+        _branches = new TreeMap<>(branches);
+    }
+
+    /** Read the whole stream, writing the objects it describes. */
+    void run() {
+        try (FileChannel scratch = FileChannel.open(SCRATCH_FILE.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            _scratch = scratch;
+            next();
+            while (_line != null && !_line.equals("done")) {
+                if (_line.equals("blob")) {
+                    blob();
+                } else if (_line.startsWith("commit ")) {
+                    commit(_line.substring("commit ".length()));
+                } else if (_line.startsWith("reset ")) {
+                    reset(_line.substring("reset ".length()));
+                } else if (_line.startsWith("tag ")) {
+                    tag();
+                } else if (_line.startsWith("progress ")) {
+                    System.out.println(_line.substring("progress ".length()));
+                    next();
+                } else if (_line.isEmpty() || _line.startsWith("#")
+                           || _line.startsWith("feature ")
+                           || _line.startsWith("option ")
+                           || _line.equals("checkpoint")) {
+                    next();
+                } else {
+                    throw Utils.error("Unsupported fast-import command: %s",
+                            _line);
+                }
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot import: %s", excp.getMessage());
+        } finally {
+            SCRATCH_FILE.delete();
+        }
+    }
+
+    /** Return the ids of the commits read, in the order read. */
+    List<ObjectId> commits() {
+        return _commits;
+    }
+
+    /** Return the messages of the commits read, in the same order. */
+    List<String> messages() {
+        return _messages;
+    }
+
+    /** Return the branches the stream moved or created, with their new
+     *  heads. */
+    Map<String, ObjectId> branches() {
+        TreeMap<String, ObjectId> result = new TreeMap<>();
+        for (Map.Entry<String, ObjectId> e : _branches.entrySet()) {
+            if (!e.getValue().equals(_original.get(e.getKey()))) {
+                result.put(e.getKey(), e.getValue());
+            }
+        }
+        return result;
+    }
+
+    /** Return the number of blob files written. */
+    int blobCount() {
+        return _blobcount;
+    }
+
+    /** Read a blob record, keeping its contents in the scratch file if it
+     *  has a mark. */
+    private void blob() throws IOException {
+        next();
+        long mark = mark();
+        skip("original-oid ");
+        byte[] data = data();
+        if (mark >= 0) {
+            long start = _scratch.size();
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                _scratch.write(buffer, start + buffer.position());
+            }
+            _blobmarks.put(mark, new long[] {start, data.length});
+        }
+    }
+
+    /** Read a commit record for the ref REF, and write the commit. */
+    private void commit(String ref) throws IOException {
+        String branch = branch(ref);
+        next();
+        long mark = mark();
+        skip("original-oid ");
+        skip("author ");
+        if (_line == null || !_line.startsWith("committer ")) {
+            throw Utils.error("Missing committer in commit to %s.", ref);
+        }
+        String timestamp = timestamp(_line);
+        next();
+        skip("encoding ");
+        String message = new String(data(), StandardCharsets.UTF_8);
+        if (message.endsWith("\n")) {
+            message = message.substring(0, message.length() - 1);
+        }
+        ObjectId parent = branch == null ? null : _branches.get(branch);
+        ObjectId second = null;
+        if (_line != null && _line.startsWith("from ")) {
+            parent = commitRef(_line.substring("from ".length()));
+            next();
+        }
+        if (_line != null && _line.startsWith("merge ")) {
+            second = commitRef(_line.substring("merge ".length()));
+            next();
+        }
+        if (_line != null && _line.startsWith("merge ")) {
+            throw Utils.error("Commit to %s has more than two parents.", ref);
+        }
+        HashMap<String, ObjectId> files = files(parent);
+        boolean changed = true;
+        while (changed) {
+            changed = change(files);
+        }
+        Commit commit = new Commit(message, parent == null ? root() : parent,
+                second, files, timestamp);
+        ObjectId id = commit.getHashid();
+        File file = Utils.join(Commit.COMMIT_FOLDER, id.name());
+        if (!file.exists()) {
+            Utils.replaceObject(file, commit);
+        }
+        _commits.add(id);
+        _messages.add(message);
+        if (mark >= 0) {
+            _commitmarks.put(mark, id);
+        }
+        if (branch != null) {
+            _branches.put(branch, id);
+        }
+        _last = id;
+        _lastfiles = files;
+    }
+
+    /** Apply the file change on the current line, if there is one, to
+     *  FILES, and make the line after it current.  Return false, leaving
+     *  the line current, if it is not a file change. */
+    private boolean change(HashMap<String, ObjectId> files)
+        throws IOException {
+        if (_line == null) {
+            return false;
+        } else if (_line.isEmpty()) {
+            next();
+            return true;
+        } else if (_line.equals("deleteall")) {
+            files.clear();
+        } else if (_line.startsWith("D ")) {
+            files.remove(path(_line.substring(2)));
+        } else if (_line.startsWith("R ") || _line.startsWith("C ")) {
+            String[] paths = paths(_line.substring(2));
+            ObjectId blob = files.get(paths[0]);
+            if (blob == null) {
+                throw Utils.error("No file %s to copy or rename.", paths[0]);
+            }
+            if (_line.startsWith("R ")) {
+                files.remove(paths[0]);
+            }
+            Promisor.prefetch(List.of(blob));
+            files.put(paths[1], store(paths[1], ChunkStore.readBytes(
+                    Utils.join(Blobs.BLOB_FOLDER, blob.name()))));
+        } else if (_line.startsWith("M ")) {
+            String[] words = _line.split(" ", 4);
+            if (words.length < 4) {
+                throw Utils.error("Bad file change: %s", _line);
+            }
+            String path = path(words[3]);
+            if (words[2].equals("inline")) {
+                next();
+                byte[] content = data();
+                if (!words[1].equals(SUBMODULE)) {
+                    files.put(path, store(path, content));
+                }
+                return true;
+            } else if (!words[1].equals(SUBMODULE)) {
+                files.put(path, store(path, markedBlob(words[2])));
+            }
+        } else {
+            return false;
+        }
+        next();
+        return true;
+    }
+
+    /** Read a reset record for the ref REF. */
+    private void reset(String ref) throws IOException {
+        String branch = branch(ref);
+        next();
+        ObjectId target = null;
+        if (_line != null && _line.startsWith("from ")) {
+            target = commitRef(_line.substring("from ".length()));
+            next();
+        }
+        if (branch != null && target != null) {
+            _branches.put(branch, target);
+        } else if (branch != null) {
+            _branches.remove(branch);
+        }
+    }
+
+    /** Skip a tag record, since gitlet has no tags. */
+    private void tag() throws IOException {
+        next();
+        while (_line != null && !_line.startsWith("data ")) {
+            next();
+        }
+        data();
+    }
+
+    /** Return the id of the blob of the file PATH with contents CONTENT,
+     *  writing the blob if it is new. */
+    private ObjectId store(String path, byte[] content) {
+        ObjectId id = Hashing.id(path, content);
+        File file = Utils.join(Blobs.BLOB_FOLDER, id.name());
+        if (!file.exists()) {
+            ChunkStore.write(file, content);
+            _blobcount += 1;
+        }
+        return id;
+    }
+
+    /** Return the contents of the blob record marked REF, ":" and a
+     *  mark number. */
+    private byte[] markedBlob(String ref) throws IOException {
+        long[] where = ref.startsWith(":") ? _blobmarks.get(number(ref))
+            : null;
+        if (where == null) {
+            throw Utils.error("Unknown blob %s.", ref);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) where[1]);
+        while (buffer.hasRemaining()) {
+            if (_scratch.read(buffer, where[0] + buffer.position()) < 0) {
+                throw Utils.error("Scratch file truncated.");
+            }
+        }
+        return buffer.array();
+    }
+
+    /** Return the id of the commit REF names: ":" and a mark number, a
+     *  whole commit id, or a branch. */
+    private ObjectId commitRef(String ref) {
+        ObjectId result;
+        if (ref.startsWith(":")) {
+            result = _commitmarks.get(number(ref));
+        } else if (ObjectId.isHex(ref)) {
+            result = ObjectId.fromHex(ref);
+            if (!Utils.join(Commit.COMMIT_FOLDER, ref).isFile()) {
+                result = null;
+            }
+        } else {
+            result = _branches.get(branch(ref));
+        }
+        if (result == null) {
+            throw Utils.error("Unknown commit %s.", ref);
+        }
+        return result;
+    }
+
+    /** Return the files of the commit with id PARENT, or none if PARENT is
+     *  null, as a map that may be changed. */
+    private HashMap<String, ObjectId> files(ObjectId parent) {
+        if (parent == null) {
+            return new HashMap<>();
+        } else if (parent.equals(_last)) {
+            return new HashMap<>(_lastfiles);
+        }
+        return new HashMap<>(ObjectCache.readCommit(parent).getBlob());
+    }
+
+    /** Return the id of the initial commit of the repository, found by
+     *  following first parents back from one of its branches. */
+    private ObjectId root() {
+        if (_root == null) {
+            ObjectId id = _original.values().iterator().next();
+            for (ObjectId parent = id; parent != null;
+                 parent = ObjectCache.readCommit(id).getParent()) {
+                id = parent;
+            }
+            _root = id;
+        }
+        return _root;
+    }
+
+    /** Return the branch the ref REF names, or null if it is not a branch:
+     *  refs/heads/ is dropped and other refs/ are not branches. */
+    private static String branch(String ref) {
+        if (ref.startsWith("refs/heads/")) {
+            return ref.substring("refs/heads/".length());
+        }
+        return ref.startsWith("refs/") ? null : ref;
+    }
+
+    /** Return the gitlet timestamp of the committer line LINE, whose last
+     *  two words are seconds since the epoch and a +hhmm zone offset. */
+    private static String timestamp(String line) {
+        String[] words = line.split(" ");
+        String zone = words[words.length - 1];
+        try {
+            long seconds = Long.parseLong(words[words.length - 2]);
+            if (!zone.matches("[-+]\\d{4}")) {
+                throw new NumberFormatException();
+            }
+            SimpleDateFormat format = new SimpleDateFormat(
+                    Commit.TIME_FORMAT);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"
+                    + zone.substring(0, 3) + ":" + zone.substring(3)));
+            return format.format(new Date(seconds * 1000));
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException
+                 excp) {
+            throw Utils.error("Bad committer time: %s", line);
+        }
+    }
+
+    /** Return the file name PATH, unquoting it if it is quoted, and
+     *  checking that it names a file at the top of the working
+     *  directory. */
+    private static String path(String path) {
+        String result = path.startsWith("\"") ? unquote(path) : path;
+        if (result.isEmpty() || result.contains("/") || result.equals(".")
+            || result.equals("..")) {
+            throw Utils.error("Cannot import %s: gitlet only tracks files at "
+                    + "the top of the working directory.", result);
+        }
+        return result;
+    }
+
+    /** Return the source and target file names of an R or C change whose
+     *  arguments are ARGS. */
+    private static String[] paths(String args) {
+        int split;
+        if (args.startsWith("\"")) {
+            split = args.indexOf('"', 1);
+            while (split > 0 && args.charAt(split - 1) == '\\') {
+                split = args.indexOf('"', split + 1);
+            }
+            split += 1;
+        } else {
+            split = args.indexOf(' ');
+        }
+        if (split <= 0 || split >= args.length()) {
+            throw Utils.error("Bad file change: %s", args);
+        }
+        return new String[] {path(args.substring(0, split)),
+                             path(args.substring(split + 1))};
+    }
+
+    /** Return the C-style quoted string QUOTED without its quotes and
+     *  escapes.  Octal escapes are bytes of UTF-8. */
+    private static String unquote(String quoted) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] raw = quoted.getBytes(StandardCharsets.UTF_8);
+        for (int i = 1; i < raw.length - 1; i += 1) {
+            if (raw[i] != '\\') {
+                bytes.write(raw[i]);
+                continue;
+            }
+            i += 1;
+            char c = (char) raw[i];
+            if (c >= '0' && c <= '7') {
+                bytes.write(Integer.parseInt(quoted.substring(i, i + 3), 8));
+                i += 2;
+            } else {
+                int k = "abfnrtv".indexOf(c);
+                bytes.write(k >= 0 ? "\007\b\f\n\r\t\013".charAt(k) : c);
+            }
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /** Return the mark on the current line and read the next, or -1 if
+     *  the current line is not a mark. */
+    private long mark() throws IOException {
+        if (_line == null || !_line.startsWith("mark ")) {
+            return -1;
+        }
+        long result = number(_line.substring("mark ".length()));
+        next();
+        return result;
+    }
+
+    /** Return the number of the mark reference REF, ":" and digits. */
+    private static long number(String ref) {
+        try {
+            return Long.parseLong(ref.substring(1));
+        } catch (NumberFormatException | StringIndexOutOfBoundsException
+                 excp) {
+            throw Utils.error("Bad mark: %s", ref);
+        }
+    }
+
+    /** Read the next line if the current one starts with PREFIX. */
+    private void skip(String prefix) throws IOException {
+        if (_line != null && _line.startsWith(prefix)) {
+            next();
+        }
+    }
+
+    /** Return the bytes of the data command on the current line, either
+     *  "data N" followed by N bytes or "data <<DELIMITER" followed by lines
+     *  up to DELIMITER, and read the line after them. */
+    private byte[] data() throws IOException {
+        if (_line == null || !_line.startsWith("data ")) {
+            throw Utils.error("Expected data, not %s", _line);
+        }
+        String arg = _line.substring("data ".length());
+        byte[] result;
+        if (arg.startsWith("<<")) {
+            String delimiter = arg.substring(2);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            for (next(); !Objects.equals(_line, delimiter); next()) {
+                if (_line == null) {
+                    throw Utils.error("Missing data delimiter %s.",
+                            delimiter);
+                }
+                bytes.write(_line.getBytes(StandardCharsets.UTF_8));
+                bytes.write('\n');
+            }
+            result = bytes.toByteArray();
+        } else {
+            try {
+                result = _in.readNBytes(Integer.parseInt(arg));
+            } catch (NumberFormatException excp) {
+                throw Utils.error("Bad data length: %s", arg);
+            }
+            if (result.length != Integer.parseInt(arg)) {
+                throw Utils.error("Stream ended inside data.");
+            }
+        }
+        next();
+        return result;
+    }
+
+    /** Make the next line of the stream, without its newline, current, or
+     *  null at the end of the stream. */
+    private void next() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(80);
+        int c = _in.read();
+        if (c < 0) {
+            _line = null;
+            return;
+        }
+        while (c >= 0 && c != '\n') {
+            bytes.write(c);
+            c = _in.read();
+        }
+        _line = bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    /** The stream. */
+    private final BufferedInputStream _in;
+    /** Its current line, or null at its end. */
+    private String _line;
+    /** Scratch file of blob contents. */
+    private FileChannel _scratch;
+    /** Where the contents of each marked blob are in the scratch file: the
+     *  offset and the length. */
+    private final HashMap<Long, long[]> _blobmarks = new HashMap<>();
+    /** The id of each marked commit. */
+    private final HashMap<Long, ObjectId> _commitmarks = new HashMap<>();
+    /** The branches of the repository before the import. */
+    private final TreeMap<String, ObjectId> _original;
+    /** The branches as the stream has left them so far. */
+    private final TreeMap<String, ObjectId> _branches;
+    /** Commits read, in order, and their messages. */
+    private final List<ObjectId> _commits = new ArrayList<>();
+    /** See _commits. */
+    private final List<String> _messages = new ArrayList<>();
+    /** The last commit written and its files, which the next commit most
+     *  often starts from. */
+    private ObjectId _last;
+    /** See _last. */
+    private HashMap<String, ObjectId> _lastfiles;
+    /** The initial commit of the repository, once found. */
+    private ObjectId _root;
+    /** Number of blob files written. */
+    private int _blobcount;
+}
@@ -0,0 +1,189 @@
+package gitlet;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/** The files of a commit: the PathTable ids of their paths, ascending,
+ *  and the blob id of each, as two parallel arrays.  A listing of N files
+ *  is an int and a reference per file, rather than a map entry, a boxed
+ *  key and a path String of its own.  Because every listing is sorted the
+ *  same way, comparing listings (as merge, rename detection and the
+ *  commit graph do) is a single linear walk; single files are found by
+ *  binary search.  Listings are immutable.
+ *  @author Daniel Ngo
+ */
+final class FileList {
+
+    /** The listing of no files. */
+    static final FileList EMPTY = new FileList(new int[0], new ObjectId[0]);
+
+    /** Receives the entries of a walk over several listings. */
+    interface Visitor {
+        /** The file whose path has id PATH has blob id A in the first
+         *  listing, B in the second and C in the third, each null if the
+         *  file is absent from that listing. */
+        void visit(int path, ObjectId a, ObjectId b, ObjectId c);
+    }
+
+    /** A listing of the files with path ids PATHS, ascending, and blob
+     *  ids BLOBS. */
+    private FileList(int[] paths, ObjectId[] blobs) {
+        _paths = paths;
+        _blobs = blobs;
+    }
+
+    /** Return the listing of FILES, a map from file names to blob ids. */
+    static FileList of(Map<String, ObjectId> files) {
+        String[] names = new String[files.size()];
+        ObjectId[] blobs = new ObjectId[files.size()];
+        int n = 0;
+        for (Map.Entry<String, ObjectId> e : files.entrySet()) {
+            names[n] = e.getKey();
+            blobs[n] = e.getValue();
+            n += 1;
+        }
+        return of(names, blobs);
+    }
+
+    /** Return the listing of the files named NAMES, with blob ids VALUES,
+     *  a parallel array.  NAMES must be distinct. */
+    static FileList of(String[] names, ObjectId[] values) {
+        int n = names.length;
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i += 1) {
+            keys[i] = (long) PathTable.intern(names[i]) << 32 | i;
+        }
+        Arrays.sort(keys);
+        int[] paths = new int[n];
+        ObjectId[] blobs = new ObjectId[n];
+        for (int i = 0; i < n; i += 1) {
+            paths[i] = (int) (keys[i] >>> 32);
+            blobs[i] = values[(int) keys[i]];
+        }
+        return new FileList(paths, blobs);
+    }
+
+    /** Return the number of files. */
+    int size() {
+        return _paths.length;
+    }
+
+    /** Return the blob id of the file named NAME, or null if there is
+     *  none. */
+    ObjectId get(String name) {
+        int path = PathTable.find(name);
+        int k = path < 0 ? -1 : Arrays.binarySearch(_paths, path);
+        return k < 0 ? null : _blobs[k];
+    }
+
+    /** Return the blob ids of the files, in path id order. */
+    List<ObjectId> blobs() {
+        return Arrays.asList(_blobs.clone());
+    }
+
+    /** Return a read-only map from file names to blob ids backed by this
+     *  listing. */
+    Map<String, ObjectId> asMap() {
+        return new View();
+    }
+
+    /** Pass each path in A, B or C to VISITOR once, in ascending order of
+     *  path id, with its blob id in each. */
+    static void walk(FileList a, FileList b, FileList c, Visitor visitor) {
+        int i = 0, j = 0, k = 0;
+        while (i < a.size() || j < b.size() || k < c.size()) {
+            int path = Math.min(a.path(i), Math.min(b.path(j), c.path(k)));
+            ObjectId x = null, y = null, z = null;
+            if (a.path(i) == path) {
+                x = a._blobs[i];
+                i += 1;
+            }
+            if (b.path(j) == path) {
+                y = b._blobs[j];
+                j += 1;
+            }
+            if (c.path(k) == path) {
+                z = c._blobs[k];
+                k += 1;
+            }
+            visitor.visit(path, x, y, z);
+        }
+    }
+
+    /** Pass each path in A or B to VISITOR once, in ascending order of path
+     *  id, with its blob id in each and null as the third. */
+    static void walk(FileList a, FileList b, Visitor visitor) {
+        walk(a, b, EMPTY, visitor);
+    }
+
+    /** Return the path id of the Ith file, or Integer.MAX_VALUE past the
+     *  last. */
+    private int path(int i) {
+        return i < _paths.length ? _paths[i] : Integer.MAX_VALUE;
+    }
+
+    /** A map view of the listing. */
+    private class View extends AbstractMap<String, ObjectId> {
+        @Override
+        public int size() {
+            return _paths.length;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String && FileList.this.get((String) key)
+                != null;
+        }
+
+        @Override
+        public ObjectId get(Object key) {
+            return key instanceof String ? FileList.this.get((String) key)
+                : null;
+        }
+
+        @Override
+        public Set<Map.Entry<String, ObjectId>> entrySet() {
+            return new AbstractSet<Map.Entry<String, ObjectId>>() {
+                @Override
+                public int size() {
+                    return _paths.length;
+                }
+
+                @Override
+                public Iterator<Map.Entry<String, ObjectId>> iterator() {
+                    return new Iterator<Map.Entry<String, ObjectId>>() {
+                        @Override
+                        public boolean hasNext() {
+                            return _next < _paths.length;
+                        }
+
+                        @Override
+                        public Map.Entry<String, ObjectId> next() {
+                            if (_next >= _paths.length) {
+                                throw new NoSuchElementException();
+                            }
+                            _next += 1;
+                            return new SimpleImmutableEntry<>(
+                                    PathTable.path(_paths[_next - 1]),
+                                    _blobs[_next - 1]);
+                        }
+
+                        /** Index of the next entry. */
+                        private int _next;
+                    };
+                }
+            };
+        }
+    }
+
+    /** Path ids of the files, ascending. */
+    private final int[] _paths;
+    /** Blob id of each file, parallel to _paths. */
+    private final ObjectId[] _blobs;
+}
@@ -0,0 +1,247 @@
+package gitlet;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Verifies the object store.  Every commit, blob and chunk file is
+ *  re-hashed across all cores and compared with its name, and the history
+ *  of every branch is walked to find commits and blobs that are referred
+ *  to but missing, and objects on disk that nothing refers to (dangling).
+ *  Blobs absent from a partial clone are counted as promised, not
+ *  missing.
+ *  @author Daniel Ngo
+ */
+class Fsck {
+
+    /** A checker for the repository whose branches are BRANCHES and whose
+     *  staged files are STAGED (file name to blob id). */
+    Fsck(Map<String, ObjectId> branches, Map<String, ObjectId> staged) {
+        _branches = branches;
+        _staged = staged;
+    }
+
+    /** Check the whole object store. */
+    void run() {
+        long start = System.nanoTime();
+        List<ObjectId> commitfiles = ids(Commit.COMMIT_FOLDER, "commit");
+        List<ObjectId> blobfiles = ids(Blobs.BLOB_FOLDER, "blob");
+        ConcurrentHashMap<ObjectId, Commit> commits =
+            new ConcurrentHashMap<>();
+        commitfiles.parallelStream().forEach(id -> checkCommit(id, commits));
+        ConcurrentHashMap<ObjectId, String> blobnames =
+            new ConcurrentHashMap<>();
+        for (Commit commit : commits.values()) {
+            for (Map.Entry<String, ObjectId> e
+                     : commit.getBlob().entrySet()) {
+                blobnames.putIfAbsent(e.getValue(), e.getKey());
+            }
+        }
+        for (Map.Entry<String, ObjectId> e : _staged.entrySet()) {
+            blobnames.putIfAbsent(e.getValue(), e.getKey());
+        }
+        List<String> chunkfiles = names(ChunkStore.CHUNK_FOLDER);
+        _chunkfiles = new HashSet<>(chunkfiles);
+        chunkfiles.parallelStream().forEach(this::checkChunk);
+        blobfiles.parallelStream().forEach(id ->
+                checkBlob(id, blobnames.get(id)));
+        connectivity(commits, new HashSet<>(commitfiles),
+                new HashSet<>(blobfiles));
+        _nanos = System.nanoTime() - start;
+        _commitcount = commitfiles.size();
+        _blobcount = blobfiles.size();
+        _chunkcount = chunkfiles.size();
+    }
+
+    /** Write the problems found by the last run and a summary to OUT. */
+    void report(PrintWriter out) {
+        for (String line : _corrupt) {
+            out.println("corrupt " + line);
+        }
+        for (String line : _missing) {
+            out.println("missing " + line);
+        }
+        for (String line : _dangling) {
+            out.println("dangling " + line);
+        }
+        double seconds = _nanos / 1e9;
+        out.printf("Checked %d commits and %d blobs, %d bytes, in %.3f s "
+                + "(%.1f MB/s).%n", _commitcount, _blobcount, _bytes.get(),
+                seconds, _bytes.get() / 1e6 / Math.max(seconds, 1e-9));
+        if (_chunkcount > 0) {
+            out.printf("%d chunks checked.%n", _chunkcount);
+        }
+        if (_legacy.get() > 0) {
+            out.printf("%d commits predate content hashing and were "
+                    + "checked by id only.%n", _legacy.get());
+        }
+        if (_promised > 0) {
+            out.printf("%d blobs are left to the promisor remote.%n",
+                    _promised);
+        }
+    }
+
+    /** Re-hash the commit file of ID and, if it is sound, add the
+     *  decoded commit to COMMITS. */
+    private void checkCommit(ObjectId id, Map<ObjectId, Commit> commits) {
+        File file = Utils.join(Commit.COMMIT_FOLDER, id.name());
+        byte[] bytes = Utils.readContents(file);
+        _bytes.addAndGet(bytes.length);
+        if (!Hashing.id((Object) bytes).equals(id)) {
+            String ascii = new String(bytes, StandardCharsets.ISO_8859_1);
+            if (!ascii.contains(id.name())) {
+                _corrupt.add("commit " + id);
+                return;
+            }
+            _legacy.incrementAndGet();
+        }
+        try {
+            commits.put(id, Commit.read(id));
+        } catch (IllegalArgumentException | ClassCastException excp) {
+            _corrupt.add("commit " + id);
+        }
+    }
+
+    /** Re-hash the blob file of ID, stored for a file named NAME.  A
+     *  blob's id covers its file name, so blobs nothing refers to (NAME is
+     *  null) cannot be re-hashed. */
+    private void checkBlob(ObjectId id, String name) {
+        File file = Utils.join(Blobs.BLOB_FOLDER, id.name());
+        _bytes.addAndGet(file.length());
+        byte[] bytes = Utils.readContents(file);
+        if (ChunkStore.isManifest(bytes)) {
+            boolean whole = true;
+            for (String chunk : ChunkStore.chunks(bytes)) {
+                if (!_chunkfiles.contains(chunk)) {
+                    _missing.add("chunk " + chunk + " (in blob " + id + ")");
+                    whole = false;
+                }
+            }
+            if (name != null && whole && !Hashing.id(name,
+                    ChunkStore.readBytes(file)).equals(id)) {
+                _corrupt.add("blob " + id);
+            }
+        } else if (name != null && !Hashing.id(name, bytes).equals(id)) {
+            _corrupt.add("blob " + id);
+        }
+    }
+
+    /** Re-hash the chunk file named ID. */
+    private void checkChunk(String id) {
+        byte[] bytes = Utils.readContents(
+                Utils.join(ChunkStore.CHUNK_FOLDER, id));
+        _bytes.addAndGet(bytes.length);
+        if (!Hashing.id((Object) bytes).name().equals(id)) {
+            _corrupt.add("chunk " + id);
+        }
+    }
+
+    /** Walk the history of every branch through the sound commits in
+     *  COMMITS, recording missing objects, then record the objects in
+     *  COMMITFILES and BLOBFILES that were not reached as dangling. */
+    private void connectivity(Map<ObjectId, Commit> commits,
+                              Set<ObjectId> commitfiles,
+                              Set<ObjectId> blobfiles) {
+        HashSet<ObjectId> reached = new HashSet<>();
+        HashSet<ObjectId> reachedblobs = new HashSet<>(_staged.values());
+        boolean partial = Promisor.isPartial();
+        ArrayList<Object[]> work = new ArrayList<>();
+        for (Map.Entry<String, ObjectId> e : _branches.entrySet()) {
+            work.add(new Object[] {e.getValue(), "branch " + e.getKey()});
+        }
+        while (!work.isEmpty()) {
+            Object[] item = work.remove(work.size() - 1);
+            ObjectId id = (ObjectId) item[0];
+            if (id == null || !reached.add(id)) {
+                continue;
+            }
+            if (!commitfiles.contains(id)) {
+                _missing.add("commit " + id + " (from " + item[1] + ")");
+                continue;
+            }
+            Commit commit = commits.get(id);
+            if (commit == null) {
+                continue;
+            }
+            for (Map.Entry<String, ObjectId> e
+                     : commit.getBlob().entrySet()) {
+                if (!blobfiles.contains(e.getValue())
+                        && !reachedblobs.contains(e.getValue())) {
+                    if (partial) {
+                        _promised += 1;
+                    } else {
+                        _missing.add("blob " + e.getValue() + " ("
+                                + e.getKey() + " in commit " + id + ")");
+                    }
+                }
+                reachedblobs.add(e.getValue());
+            }
+            work.add(new Object[] {commit.getParent(), "commit " + id});
+            work.add(new Object[] {commit.getSecondparent(),
+                                   "commit " + id});
+        }
+        for (ObjectId id : commitfiles) {
+            if (!reached.contains(id)) {
+                _dangling.add("commit " + id);
+            }
+        }
+        for (ObjectId id : blobfiles) {
+            if (!reachedblobs.contains(id)) {
+                _dangling.add("blob " + id);
+            }
+        }
+    }
+
+    /** Return the ids of the objects in FOLDER, objects of kind KIND,
+     *  recording files whose names are not ids as corrupt. */
+    private List<ObjectId> ids(File folder, String kind) {
+        ArrayList<ObjectId> result = new ArrayList<>();
+        for (String name : names(folder)) {
+            ObjectId id = ObjectId.parse(name);
+            if (id == null) {
+                _corrupt.add(kind + " " + name);
+            } else {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    /** Return the names of the plain files in FOLDER. */
+    private static List<String> names(File folder) {
+        List<String> result = Utils.plainFilenamesIn(folder);
+        return result == null ? new ArrayList<>() : result;
+    }
+
+    /** Branch names and the ids of their commits. */
+    private final Map<String, ObjectId> _branches;
+    /** Staged file names and their blob ids. */
+    private final Map<String, ObjectId> _staged;
+    /** Descriptions of corrupt, missing and dangling objects, sorted. */
+    private final Set<String> _corrupt =
+        Collections.synchronizedSet(new TreeSet<>()),
+        _missing = Collections.synchronizedSet(new TreeSet<>()),
+        _dangling = new TreeSet<>();
+    /** Names of the chunk files. */
+    private Set<String> _chunkfiles;
+    /** Number of bytes read. */
+    private final AtomicLong _bytes = new AtomicLong();
+    /** Number of commits written before commit files were content
+     *  hashed. */
+    private final AtomicLong _legacy = new AtomicLong();
+    /** Number of blobs missing from a partial clone. */
+    private int _promised;
+    /** Number of commit, blob and chunk files. */
+    private int _commitcount, _blobcount, _chunkcount;
+    /** Time taken by the last run. */
+    private long _nanos;
+}
@@ -0,0 +1,159 @@
+package gitlet;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/** Removes commits and blobs that can no longer be reached.  The objects
+ *  reachable from the roots come from the Reachability bitmaps, so only
+ *  commits made since the last stored bitmap are read, and unreached
+ *  objects older than a grace period are deleted, followed by the chunks
+ *  no remaining blob lists.  The deleted objects are then dropped from
+ *  the index.  Memory use is the object index plus one bit per object.
+ *  @author Daniel Ngo
+ */
+class GarbageCollector {
+
+    /** Default grace period: unreachable objects younger than two weeks
+     *  are kept, in case another process is about to refer to them. */
+    static final long DEFAULT_GRACE = 14L * 24 * 60 * 60 * 1000;
+
+    /** A collector whose roots are the commits with ids ROOTCOMMITS and
+     *  the blobs with ids ROOTBLOBS. */
+    GarbageCollector(Collection<ObjectId> rootcommits,
+                     Collection<ObjectId> rootblobs) {
+        _rootcommits = rootcommits;
+        _rootblobs = rootblobs;
+    }
+
+    /** Collect every unreachable object last modified more than GRACE
+     *  milliseconds ago, and return the ids of the commits deleted. */
+    Set<ObjectId> run(long grace) {
+        long start = System.nanoTime();
+        _commits = ids(Commit.COMMIT_FOLDER);
+        _blobs = ids(Blobs.BLOB_FOLDER);
+        Reachability index = Reachability.load();
+        long indexed = System.nanoTime();
+        BitSet live = new BitSet(index.size());
+        index.reachAll(_rootcommits).orInto(live);
+        _livecount = live.cardinality();
+        for (ObjectId blob : _rootblobs) {
+            int pos = index.position(blob);
+            if (pos < 0 || !live.get(pos)) {
+                _livecount += 1;
+            }
+        }
+        HashSet<ObjectId> rootblobs = new HashSet<>(_rootblobs);
+        long marked = System.nanoTime();
+        long cutoff = System.currentTimeMillis() - grace;
+        HashSet<ObjectId> deleted = new HashSet<>();
+        sweep(Commit.COMMIT_FOLDER, _commits, index, live, Set.of(), cutoff,
+                deleted);
+        _deletedcommits = deleted.size();
+        HashSet<ObjectId> removed = new HashSet<>();
+        sweep(Blobs.BLOB_FOLDER, _blobs, index, live, rootblobs, cutoff,
+                removed);
+        _deletedblobs = removed.size();
+        sweepChunks(cutoff);
+        index.forget(deleted);
+        removed.addAll(deleted);
+        index.compact(removed);
+        index.remember(_rootcommits);
+        long swept = System.nanoTime();
+        _indextime = indexed - start;
+        _marktime = marked - indexed;
+        _sweeptime = swept - marked;
+        return deleted;
+    }
+
+    /** Write a summary of the last run to OUT. */
+    void report(PrintWriter out) {
+        out.printf("Objects: %d commits, %d blobs, %d reachable.%n",
+                _commits.length, _blobs.length, _livecount);
+        out.printf("Removed %d commits, %d blobs and %d chunks, reclaiming "
+                + "%d bytes.%n", _deletedcommits, _deletedblobs,
+                _deletedchunks, _reclaimed);
+        out.printf("index %d ms, mark %d ms, sweep %d ms%n",
+                _indextime / 1000000, _marktime / 1000000,
+                _sweeptime / 1000000);
+    }
+
+    /** Delete the objects in FOLDER named by IDS that are neither set in
+     *  LIVE, at their positions in INDEX, nor in KEEP, and that were last
+     *  modified before CUTOFF, adding their ids to DELETED. */
+    private void sweep(File folder, ObjectId[] ids, Reachability index,
+                       BitSet live, Set<ObjectId> keep, long cutoff,
+                       Set<ObjectId> deleted) {
+        for (ObjectId id : ids) {
+            int pos = index.position(id);
+            if ((pos >= 0 && live.get(pos)) || keep.contains(id)) {
+                continue;
+            }
+            File file = Utils.join(folder, id.name());
+            long size = file.length();
+            if (file.lastModified() < cutoff && file.delete()) {
+                ObjectCache.invalidate(id);
+                _reclaimed += size;
+                deleted.add(id);
+            }
+        }
+    }
+
+    /** Delete the chunks last modified before CUTOFF that no remaining
+     *  blob lists. */
+    private void sweepChunks(long cutoff) {
+        String[] chunks = names(ChunkStore.CHUNK_FOLDER);
+        if (chunks.length == 0) {
+            return;
+        }
+        HashSet<String> used = new HashSet<>();
+        for (String blob : names(Blobs.BLOB_FOLDER)) {
+            File file = Utils.join(Blobs.BLOB_FOLDER, blob);
+            if (ChunkStore.isManifest(file)) {
+                used.addAll(ChunkStore.chunks(Utils.readContents(file)));
+            }
+        }
+        for (String id : chunks) {
+            File file = Utils.join(ChunkStore.CHUNK_FOLDER, id);
+            long size = file.length();
+            if (!used.contains(id) && file.lastModified() < cutoff
+                    && file.delete()) {
+                _reclaimed += size;
+                _deletedchunks += 1;
+            }
+        }
+    }
+
+    /** Return the ids of the objects in FOLDER.  Files whose names are
+     *  not ids are left alone. */
+    private static ObjectId[] ids(File folder) {
+        return Arrays.stream(names(folder)).map(ObjectId::parse)
+            .filter(id -> id != null).toArray(ObjectId[]::new);
+    }
+
+    /** Return the names of the plain files in FOLDER. */
+    private static String[] names(File folder) {
+        List<String> names = Utils.plainFilenamesIn(folder);
+        return names == null ? new String[0] : names.toArray(new String[0]);
+    }
+
+    /** Ids of the root commits. */
+    private final Collection<ObjectId> _rootcommits;
+    /** Ids of the root blobs. */
+    private final Collection<ObjectId> _rootblobs;
+    /** Ids of all commits and all blobs on disk. */
+    private ObjectId[] _commits, _blobs;
+    /** Number of reachable objects found. */
+    private int _livecount;
+    /** Number of commits, blobs and chunks deleted. */
+    private int _deletedcommits, _deletedblobs, _deletedchunks;
+    /** Number of bytes freed. */
+    private long _reclaimed;
+    /** Time in nanoseconds spent in each phase. */
+    private long _indextime, _marktime, _sweeptime;
+}
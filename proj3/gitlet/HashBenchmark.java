@@ -0,0 +1,56 @@
+package gitlet;
+
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+/** Measures hashing throughput: each algorithm plain, then in tree mode
+ *  with 1, 2, 4, ... threads up to the number of cores.
+ *  Usage: java gitlet.HashBenchmark [megabytes]
+ *  @author Daniel Ngo
+ */
+public class HashBenchmark {
+
+    /** Number of timed runs per measurement; the best is reported. */
+    private static final int RUNS = 3;
+
+    /** Hash ARGS[0] (default 256) megabytes of random data and print the
+     *  throughput of each configuration in MB/s. */
+    public static void main(String... args) {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        byte[] data = new byte[megabytes << 20];
+        new Random(0).nextBytes(data);
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%-12s %7s %10s%n", "hash", "threads", "MB/s");
+        for (Hashing.Algorithm algorithm : Hashing.Algorithm.values()) {
+            Hashing plain = new Hashing(algorithm, false);
+            System.out.printf("%-12s %7d %10.1f%n", plain.name(), 1,
+                    throughput(plain, data, 1));
+            Hashing tree = new Hashing(algorithm, true);
+            for (int threads = 1; threads <= cores; threads *= 2) {
+                System.out.printf("%-12s %7d %10.1f%n", tree.name(), threads,
+                        throughput(tree, data, threads));
+            }
+        }
+    }
+
+    /** Return the best MB/s of RUNS hashes of DATA with HASH, using
+     *  THREADS threads. */
+    private static double throughput(Hashing hash, byte[] data,
+                                     int threads) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long best = Long.MAX_VALUE;
+        try {
+            for (int run = 0; run < RUNS; run += 1) {
+                long start = System.nanoTime();
+                pool.submit(() -> hash.hash((Object) data)).get();
+                best = Math.min(best, System.nanoTime() - start);
+            }
+        } catch (InterruptedException | ExecutionException excp) {
+            throw Utils.error("Benchmark failed: %s", excp.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+        return data.length / 1e6 / (best / 1e9);
+    }
+}
@@ -0,0 +1,270 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.stream.IntStream;
+
+/** How object ids are computed.  A repository picks its hash when it is
+ *  created (init --hash=NAME) and records it in .gitlet/hash; without
+ *  that file it uses plain SHA-1, as every repository before it did.
+ *  Digesters are kept per thread and reused rather than created for every
+ *  id.  In tree mode, inputs of at least TREE_THRESHOLD bytes are cut into
+ *  LEAF_SIZE leaves that are hashed in parallel, and the id is the hash of
+ *  the total length and the leaf hashes.
+ *  @author Daniel Ngo
+ */
+class Hashing {
+
+    /** Holds the name of the repository's hash. */
+    static final File HASH_FILE = Utils.join(Main.GITLET_FOLDER, "hash");
+    /** Inputs at least this long are tree hashed in tree mode. */
+    static final int TREE_THRESHOLD = 8 << 20;
+    /** Size of the leaves of a tree hash. */
+    static final int LEAF_SIZE = 1 << 20;
+    /** Plain SHA-1, the hash of repositories that do not name one. */
+    static final Hashing SHA1 = new Hashing(Algorithm.SHA1, false);
+
+    /** The digest algorithms available. */
+    enum Algorithm {
+        /** SHA-1, 40 hex digits. */
+        SHA1("SHA-1", "sha1"),
+        /** SHA-256, 64 hex digits. */
+        SHA256("SHA-256", "sha256");
+
+        /** An algorithm known to MessageDigest as JDKNAME and to gitlet as
+         *  NAME. */
+        Algorithm(String jdkname, String name) {
+            _jdkname = jdkname;
+            _name = name;
+            _digests = ThreadLocal.withInitial(this::newDigest);
+        }
+
+        /** Return a new digester for this algorithm. */
+        MessageDigest newDigest() {
+            try {
+                return MessageDigest.getInstance(_jdkname);
+            } catch (NoSuchAlgorithmException excp) {
+                throw new IllegalArgumentException("System does not "
+                        + "support " + _jdkname);
+            }
+        }
+
+        /** Return this thread's digester for this algorithm, reset. */
+        MessageDigest digest() {
+            MessageDigest result = _digests.get();
+            result.reset();
+            return result;
+        }
+
+        /** Name used by the JDK. */
+        private final String _jdkname;
+        /** Name used by gitlet. */
+        private final String _name;
+        /** One digester per thread. */
+        private final ThreadLocal<MessageDigest> _digests;
+    }
+
+    /** A hash using ALGORITHM, tree hashing large inputs iff TREE. */
+    Hashing(Algorithm algorithm, boolean tree) {
+        _algorithm = algorithm;
+        _tree = tree;
+    }
+
+    /** Return the hash named NAME (e.g. sha1, sha256 or sha256-tree), or
+     *  null if there is none. */
+    static Hashing parse(String name) {
+        boolean tree = name.endsWith("-tree");
+        String base = tree ? name.substring(0, name.length() - 5) : name;
+        for (Algorithm algorithm : Algorithm.values()) {
+            if (algorithm._name.equals(base)) {
+                return new Hashing(algorithm, tree);
+            }
+        }
+        return null;
+    }
+
+    /** Return the name of this hash, as accepted by parse. */
+    String name() {
+        return _algorithm._name + (_tree ? "-tree" : "");
+    }
+
+    /** Return the hash of the repository whose .gitlet directory is
+     *  GITLET. */
+    static Hashing of(File gitlet) {
+        File file = Utils.join(gitlet, HASH_FILE.getName());
+        if (!file.isFile()) {
+            return SHA1;
+        }
+        Hashing result = parse(Utils.readContentsAsString(file).trim());
+        if (result == null) {
+            throw Utils.error("Unknown hash in %s", file);
+        }
+        return result;
+    }
+
+    /** Return the hash of this repository. */
+    static synchronized Hashing repository() {
+        if (_repository == null) {
+            _repository = of(Main.GITLET_FOLDER);
+        }
+        return _repository;
+    }
+
+    /** Make HASH the hash of this repository. */
+    static synchronized void setRepository(Hashing hash) {
+        if (!hash.name().equals(SHA1.name())) {
+            Utils.writeContents(HASH_FILE, hash.name());
+        }
+        _repository = hash;
+    }
+
+    /** Return the id of the concatenation of VALS, any mixture of byte
+     *  arrays and Strings, under this repository's hash. */
+    static ObjectId id(Object... vals) {
+        return repository().hash(vals);
+    }
+
+    /** Return the hash of the concatenation of VALS, any mixture of byte
+     *  arrays and Strings. */
+    ObjectId hash(Object... vals) {
+        byte[][] parts = new byte[vals.length][];
+        long length = 0;
+        for (int i = 0; i < vals.length; i += 1) {
+            if (vals[i] instanceof byte[]) {
+                parts[i] = (byte[]) vals[i];
+            } else if (vals[i] instanceof String) {
+                parts[i] = ((String) vals[i]).getBytes(StandardCharsets.UTF_8);
+            } else {
+                throw new IllegalArgumentException("improper type to hash");
+            }
+            length += parts[i].length;
+        }
+        if (!_tree || length < TREE_THRESHOLD) {
+            MessageDigest md = _algorithm.digest();
+            for (byte[] part : parts) {
+                md.update(part);
+            }
+            return ObjectId.of(md.digest());
+        }
+        return ObjectId.of(treeHash(parts, length));
+    }
+
+    /** Return a Hasher for this hash. */
+    Hasher hasher() {
+        return new Hasher();
+    }
+
+    /** Computes the id of input given a piece at a time, for inputs too
+     *  large to hold whole.  The id is the one hash gives for the
+     *  concatenation of the pieces; in tree mode the leaves are hashed as
+     *  they fill, one after another. */
+    final class Hasher {
+        /** Add the UTF-8 bytes of TEXT to the input. */
+        void update(String text) {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            update(bytes, 0, bytes.length);
+        }
+
+        /** Add the LEN bytes of BYTES from OFF to the input. */
+        void update(byte[] bytes, int off, int len) {
+            if (!_tree || _length < TREE_THRESHOLD) {
+                _plain.update(bytes, off, len);
+            }
+            _length += len;
+            while (_tree && len > 0) {
+                int n = (int) Math.min(len, LEAF_SIZE - _leafbytes);
+                _leaf.update(bytes, off, n);
+                _leafbytes += n;
+                off += n;
+                len -= n;
+                if (_leafbytes == LEAF_SIZE) {
+                    _leaves.add(_leaf.digest());
+                    _leafbytes = 0;
+                }
+            }
+        }
+
+        /** Return the id of the input. */
+        ObjectId finish() {
+            if (!_tree || _length < TREE_THRESHOLD) {
+                return ObjectId.of(_plain.digest());
+            }
+            if (_leafbytes > 0) {
+                _leaves.add(_leaf.digest());
+            }
+            MessageDigest md = _algorithm.newDigest();
+            md.update(("tree " + _length + "\0")
+                      .getBytes(StandardCharsets.UTF_8));
+            for (byte[] hash : _leaves) {
+                md.update(hash);
+            }
+            return ObjectId.of(md.digest());
+        }
+
+        /** Digest of the whole input, while it may be hashed plainly. */
+        private final MessageDigest _plain = _algorithm.newDigest();
+        /** Digest of the current leaf, in tree mode. */
+        private final MessageDigest _leaf = _tree ? _algorithm.newDigest()
+            : null;
+        /** Hashes of the finished leaves. */
+        private final ArrayList<byte[]> _leaves = new ArrayList<>();
+        /** Bytes in the current leaf. */
+        private int _leafbytes;
+        /** Bytes of input so far. */
+        private long _length;
+    }
+
+    /** Return the tree hash of PARTS, which hold LENGTH bytes in all. */
+    private byte[] treeHash(byte[][] parts, long length) {
+        int leaves = (int) ((length + LEAF_SIZE - 1) / LEAF_SIZE);
+        long[] starts = new long[parts.length];
+        for (int i = 1; i < parts.length; i += 1) {
+            starts[i] = starts[i - 1] + parts[i - 1].length;
+        }
+        byte[][] hashes = new byte[leaves][];
+        IntStream.range(0, leaves).parallel().forEach(leaf -> {
+            MessageDigest md = _algorithm.digest();
+            long from = (long) leaf * LEAF_SIZE;
+            long to = Math.min(from + LEAF_SIZE, length);
+            for (int i = 0; i < parts.length; i += 1) {
+                long lo = Math.max(from, starts[i]);
+                long hi = Math.min(to, starts[i] + parts[i].length);
+                if (lo < hi) {
+                    md.update(parts[i], (int) (lo - starts[i]),
+                            (int) (hi - lo));
+                }
+            }
+            hashes[leaf] = md.digest();
+        });
+        MessageDigest md = _algorithm.digest();
+        md.update(("tree " + length + "\0").getBytes(StandardCharsets.UTF_8));
+        for (byte[] hash : hashes) {
+            md.update(hash);
+        }
+        return md.digest();
+    }
+
+    /** Return BYTES as lower-case hex digits. */
+    static String hex(byte[] bytes) {
+        char[] result = new char[2 * bytes.length];
+        for (int i = 0; i < bytes.length; i += 1) {
+            result[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+            result[2 * i + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(result);
+    }
+
+    /** Hex digits. */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /** The hash of this repository, once read. */
+    private static Hashing _repository;
+
+    /** The digest algorithm. */
+    private final Algorithm _algorithm;
+    /** True iff large inputs are tree hashed. */
+    private final boolean _tree;
+}
@@ -0,0 +1,137 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/** A lazy walk over the history of one or more commits.  Commits are read
+ *  one at a time as next is called, so the first commit is available
+ *  without touching the rest of the history.
+ *  @author Daniel Ngo
+ */
+class History implements Iterator<Commit> {
+
+    /** The orders in which a history may be walked. */
+    enum Order {
+        /** Follow first parents only, as in git log --first-parent. */
+        FIRST_PARENT,
+        /** All ancestors, newest first. */
+        DATE,
+        /** All ancestors, never showing a parent before its children,
+         *  newest first among those that are ready. */
+        TOPO
+    }
+
+    /** Newest-first ordering on commits. */
+    private static final Comparator<Commit> NEWEST_FIRST =
+        Comparator.comparingLong(Commit::getTime).reversed();
+
+    /** A walk in ORDER over the history of the commits with ids STARTS. */
+    History(Collection<ObjectId> starts, Order order) {
+        _order = order;
+        _queue = new PriorityQueue<>(NEWEST_FIRST);
+        _seen = new HashSet<>();
+        if (order == Order.TOPO) {
+            countChildren(starts);
+        }
+        for (ObjectId id : starts) {
+            if (id != null && _seen.add(id)) {
+                if (order != Order.TOPO || _children.get(id) == 0) {
+                    _queue.add(ObjectCache.readCommit(id));
+                }
+            }
+        }
+    }
+
+    /** A first-parent walk starting at the commit with id START. */
+    History(ObjectId start) {
+        this(List.of(start), Order.FIRST_PARENT);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !_queue.isEmpty();
+    }
+
+    @Override
+    public Commit next() {
+        if (_queue.isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        Commit result = _queue.remove();
+        if (_order == Order.FIRST_PARENT) {
+            if (result.getParent() != null) {
+                _queue.add(ObjectCache.readCommit(result.getParent()));
+            }
+            return result;
+        }
+        for (ObjectId parent : parents(result)) {
+            if (_order == Order.DATE) {
+                if (_seen.add(parent)) {
+                    _queue.add(ObjectCache.readCommit(parent));
+                }
+            } else {
+                int left = _children.get(parent) - 1;
+                _children.put(parent, left);
+                if (left == 0) {
+                    _queue.add(ObjectCache.readCommit(parent));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Record in _children, for every commit reachable from STARTS, how
+     *  many of its children are also reachable.  A topological walk may
+     *  only emit a commit once all of them have been emitted. */
+    private void countChildren(Collection<ObjectId> starts) {
+        _children = new HashMap<>();
+        ArrayList<ObjectId> work = new ArrayList<>();
+        for (ObjectId id : starts) {
+            if (id != null && !_children.containsKey(id)) {
+                _children.put(id, 0);
+                work.add(id);
+            }
+        }
+        while (!work.isEmpty()) {
+            Commit commit = ObjectCache.readCommit(
+                    work.remove(work.size() - 1));
+            for (ObjectId parent : parents(commit)) {
+                Integer count = _children.get(parent);
+                if (count == null) {
+                    _children.put(parent, 1);
+                    work.add(parent);
+                } else {
+                    _children.put(parent, count + 1);
+                }
+            }
+        }
+    }
+
+    /** Return the ids of the parents of COMMIT, first parent first. */
+    private static List<ObjectId> parents(Commit commit) {
+        ArrayList<ObjectId> result = new ArrayList<>(2);
+        if (commit.getParent() != null) {
+            result.add(commit.getParent());
+        }
+        if (commit.getSecondparent() != null) {
+            result.add(commit.getSecondparent());
+        }
+        return result;
+    }
+
+    /** The order of this walk. */
+    private final Order _order;
+    /** Commits ready to be returned, newest first. */
+    private final PriorityQueue<Commit> _queue;
+    /** Ids of commits already queued, for DATE walks. */
+    private final HashSet<ObjectId> _seen;
+    /** Number of not-yet-emitted children of each commit, for TOPO walks. */
+    private HashMap<ObjectId, Integer> _children;
+}
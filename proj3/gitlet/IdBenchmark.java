@@ -0,0 +1,86 @@
+package gitlet;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/** Measures what ObjectId saves over hex Strings: the heap held by the
+ *  file map of a commit of N files, with blob ids kept as hex Strings and
+ *  as ObjectIds, and the time to compare two such maps entry by entry, as
+ *  merge and status do.
+ *  Usage: java gitlet.IdBenchmark [files]
+ *  @author Daniel Ngo
+ */
+public class IdBenchmark {
+
+    /** Number of timed runs per measurement; the best is reported. */
+    private static final int RUNS = 5;
+
+    /** Build maps of ARGS[0] (default 1000000) files and print the heap
+     *  bytes per entry and the compare time of each representation. */
+    public static void main(String... args) {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        String[] names = new String[files];
+        byte[][] ids = new byte[files][ObjectId.WORD_BYTES];
+        Random random = new Random(0);
+        for (int i = 0; i < files; i += 1) {
+            names[i] = "dir" + (i % 100) + "/file" + i + ".txt";
+            random.nextBytes(ids[i]);
+        }
+        System.out.printf("%-10s %12s %12s%n", "ids", "bytes/entry",
+                "compare ms");
+        long base = heap();
+        Map<String, String> hex = new HashMap<>();
+        for (int i = 0; i < files; i += 1) {
+            hex.put(names[i], Hashing.hex(ids[i]));
+        }
+        long hexbytes = heap() - base;
+        Map<String, ObjectId> raw = new HashMap<>();
+        for (int i = 0; i < files; i += 1) {
+            raw.put(names[i], ObjectId.of(ids[i]));
+        }
+        long rawbytes = heap() - base - hexbytes;
+        Map<String, String> hexcopy = new HashMap<>();
+        for (Map.Entry<String, String> e : hex.entrySet()) {
+            hexcopy.put(e.getKey(), new String(e.getValue()));
+        }
+        Map<String, ObjectId> rawcopy = new HashMap<>();
+        for (Map.Entry<String, ObjectId> e : raw.entrySet()) {
+            rawcopy.put(e.getKey(), ObjectId.of(e.getValue().toBytes()));
+        }
+        System.out.printf("%-10s %12.1f %12.1f%n", "String",
+                (double) hexbytes / files, compare(hex, hexcopy));
+        System.out.printf("%-10s %12.1f %12.1f%n", "ObjectId",
+                (double) rawbytes / files, compare(raw, rawcopy));
+    }
+
+    /** Return the best time in milliseconds of RUNS comparisons of every
+     *  entry of A with the same entry of B, held in distinct objects. */
+    private static <V> double compare(Map<String, V> a, Map<String, V> b) {
+        long best = Long.MAX_VALUE;
+        int same = 0;
+        for (int run = 0; run < RUNS; run += 1) {
+            long start = System.nanoTime();
+            same = 0;
+            for (Map.Entry<String, V> e : a.entrySet()) {
+                if (e.getValue().equals(b.get(e.getKey()))) {
+                    same += 1;
+                }
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        if (same != a.size()) {
+            throw Utils.error("Benchmark failed: maps differ");
+        }
+        return best / 1e6;
+    }
+
+    /** Return the bytes of heap in use once garbage is collected. */
+    private static long heap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i += 1) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
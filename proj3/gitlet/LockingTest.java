@@ -0,0 +1,81 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Stress test of the repository lock: many gitlet processes run against
+ *  one repository at once.
+ *  @author Daniel Ngo
+ */
+public class LockingTest {
+
+    /** Number of concurrent writers, and of concurrent readers. */
+    private static final int PROCESSES = 16;
+
+    /** Concurrent branch commands must all take effect, and concurrent
+     *  log and status commands must each see a whole repository. */
+    @Test
+    public void concurrentProcesses() throws IOException,
+                                             InterruptedException {
+        File dir = Files.createTempDirectory("gitlet-lock").toFile();
+        assertEquals(0, start(dir, "init").waitFor());
+        Utils.writeContents(new File(dir, "f.txt"), "f\n");
+        assertEquals(0, start(dir, "add", "f.txt").waitFor());
+        assertEquals(0, start(dir, "commit", "f").waitFor());
+
+        ArrayList<Process> writers = new ArrayList<>();
+        ArrayList<Process> readers = new ArrayList<>();
+        for (int i = 0; i < PROCESSES; i += 1) {
+            writers.add(start(dir, "branch", "b" + i));
+            readers.add(start(dir, output(dir, i),
+                    i % 2 == 0 ? "log" : "status"));
+        }
+        for (Process writer : writers) {
+            assertEquals(0, writer.waitFor());
+        }
+        for (int i = 0; i < PROCESSES; i += 1) {
+            assertEquals(0, readers.get(i).waitFor());
+            String output = Utils.readContentsAsString(output(dir, i));
+            assertTrue(output, output.startsWith("==="));
+            assertFalse(output, output.contains("Exception"));
+        }
+
+        Process status = start(dir, "status");
+        assertEquals(0, status.waitFor());
+        List<String> lines = Files.readAllLines(output(dir, -1).toPath());
+        for (int i = 0; i < PROCESSES; i += 1) {
+            assertTrue("lost branch b" + i, lines.contains("b" + i));
+        }
+    }
+
+    /** Start gitlet with ARGS in DIR, sending its output to OUT. */
+    private static Process start(File dir, File out, String... args)
+        throws IOException {
+        ArrayList<String> command = new ArrayList<>(List.of(
+                ProcessHandle.current().info().command().orElse("java"),
+                "-cp", System.getProperty("java.class.path"),
+                "gitlet.Main"));
+        command.addAll(List.of(args));
+        return new ProcessBuilder(command).directory(dir)
+            .redirectErrorStream(true).redirectOutput(out).start();
+    }
+
+    /** Start gitlet with ARGS in DIR, sending its output to output(DIR,
+     *  -1). */
+    private static Process start(File dir, String... args)
+        throws IOException {
+        return start(dir, output(dir, -1), args);
+    }
+
+    /** Return the file in DIR receiving the output of reader K, or of
+     *  other commands if K is -1. */
+    private static File output(File dir, int k) {
+        return new File(dir, "out" + k + ".log");
+    }
+}
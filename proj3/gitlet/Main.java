@@ -2,6 +2,7 @@ package gitlet;
 
 
 import java.io.File;
+import java.util.Set;
 
 /** Driver class for Gitlet, the tiny stupid version-control system.
  *  @author Daniel Ngo
@@ -11,17 +12,38 @@ public class Main {
     static final File CWD = new File(".");
     /** Directory of the gitlet folder. */
     static final File GITLET_FOLDER = Utils.join(CWD, ".gitlet");
+    /** Commands that only read the repository, and so run without its
+     *  write lock. */
+    static final Set<String> READERS = Set.of("log", "global-log", "find",
+            "status", "blame", "stats", "fsck", "diff", "archive",
+            "fast-export");
 
     /** Usage: java gitlet.Main ARGS, where ARGS contains
      *  <COMMAND> <OPERAND> .... */
     public static void main(String... args) {
-        Commands commands = new Commands();
+        if (Boolean.getBoolean("gitlet.cachestats")) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() ->
+                    System.err.println(ObjectCache.stats())));
+        }
         if (args.length == 0) {
             System.out.println("Please enter a command.");
             System.exit(0);
         }
+        if (!READERS.contains(args[0])) {
+            RepoLock.acquire();
+        }
+        Commands commands = new Commands();
         switch (args[0]) {
         case "init":
+            if (args.length == 2 && args[1].startsWith("--hash=")) {
+                Hashing hash = Hashing.parse(args[1].substring(7));
+                if (hash == null) {
+                    System.out.println("Incorrect operands.");
+                    System.exit(0);
+                }
+                commands.init(hash);
+                break;
+            }
             checkinput(1, args);
             commands.init();
             break;
@@ -50,14 +72,17 @@ public class Main {
             commands.rm(args[1]);
             break;
         case "log":
-            checkinput(1, args);
-            commands.log();
+            commands.log(args);
             break;
         case "global-log":
             checkinput(1, args);
             commands.globallog();
             break;
         case "find":
+            if (args.length == 3) {
+                commands.find(args[1], args[2]);
+                break;
+            }
             checkinput(2, args);
             commands.find(args[1]);
             break;
@@ -112,12 +137,110 @@ public class Main {
             checkinput(2, args);
             command.merge(args[1]);
             break;
+        case "fsck":
+            if (command.getStage() == null) {
+                System.out.println("Not in an initialized Gitlet directory.");
+                System.exit(0);
+            }
+            checkinput(1, args);
+            command.fsck();
+            break;
+        case "blame":
+            checkinit(command);
+            checkinput(2, args);
+            command.blame(args[1]);
+            break;
+        case "diff":
+            checkinit(command);
+            command.diff(args);
+            break;
+        case "archive":
+            checkinit(command);
+            checkinput(3, args);
+            command.archive(args[1], args[2]);
+            break;
+        case "fast-export":
+            checkinit(command);
+            checkinput(1, args);
+            command.fastexport();
+            break;
+        case "fast-import":
+            checkinit(command);
+            checkinput(1, args);
+            command.fastimport(System.in);
+            break;
+        case "stats":
+            checkinit(command);
+            checkinput(1, args);
+            command.stats();
+            break;
+        case "sparse-checkout":
+            checkinit(command);
+            if (args.length < 2 || !args[1].equals("set")
+                    && (args.length != 2 || !args[1].equals("list")
+                        && !args[1].equals("disable"))) {
+                System.out.println("Incorrect operands.");
+                System.exit(0);
+            }
+            command.sparsecheckout(args);
+            break;
+        case "gc":
+            if (command.getStage() == null) {
+                System.out.println("Not in an initialized Gitlet directory.");
+                System.exit(0);
+            }
+            command.gc(args);
+            break;
+        default:
+            remotehelper(command, args);
+        }
+    }
+
+    public static void remotehelper(Commands command, String... args) {
+        switch (args[0]) {
+        case "add-remote":
+            checkinit(command);
+            checkinput(3, args);
+            command.addremote(args[1], args[2]);
+            break;
+        case "rm-remote":
+            checkinit(command);
+            checkinput(2, args);
+            command.rmremote(args[1]);
+            break;
+        case "fetch":
+            checkinit(command);
+            checkinput(3, args);
+            command.fetch(args[1], args[2]);
+            break;
+        case "push":
+            checkinit(command);
+            checkinput(3, args);
+            command.push(args[1], args[2]);
+            break;
+        case "pull":
+            checkinit(command);
+            checkinput(3, args);
+            command.pull(args[1], args[2]);
+            break;
+        case "clone":
+            command.clone(args);
+            break;
         default:
             System.out.println("No command with that name exists.");
             System.exit(0);
         }
     }
 
+    /** Exits with an error message unless COMMAND was loaded from an
+     *  initialized Gitlet directory. */
+    public static void checkinit(Commands command) {
+        if (command.getStage() == null) {
+            System.out.println("Not in an initialized Gitlet directory.");
+            System.exit(0);
+        }
+    }
+
     public static void checkinput(int target, String... args) {
         if (args.length == target) {
             if (target == 2) {
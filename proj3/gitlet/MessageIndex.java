@@ -0,0 +1,395 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+/** An index over the messages of all commits, so that find can answer
+ *  without reading every commit.  Exact messages map straight to the
+ *  commits that carry them, and every three-character substring (trigram)
+ *  maps to the commits whose message contains it, which narrows substring
+ *  and regex searches to the commits that could possibly match.
+ *
+ *  The index is kept as a snapshot plus a log of commits appended since
+ *  the snapshot was written, so adding a commit costs one short append
+ *  and the snapshot is only rewritten once the log grows long.
+ *  @author Daniel Ngo
+ */
+class MessageIndex implements Serializable {
+
+    /** Fixed, so that snapshots from before ids were ObjectIds fail to
+     *  load and are rebuilt. */
+    private static final long serialVersionUID = 2L;
+
+    /** File holding the last full snapshot of the index. */
+    static final File INDEX_FILE = Utils.join(Main.GITLET_FOLDER,
+            "message-index");
+    /** File holding commits added since the snapshot. */
+    static final File LOG_FILE = Utils.join(Main.GITLET_FOLDER,
+            "message-log");
+    /** Number of logged entries after which the snapshot is rewritten. */
+    static final int COMPACT_THRESHOLD = 1024;
+    /** Longest message that fits in one log record. */
+    static final int MAX_LOGGED_LENGTH = 16000;
+    /** Length of the substrings indexed. */
+    static final int GRAM = 3;
+
+    /** Characters that, escaped, begin a construct taking more characters
+     *  (a code point, property, control character, name or quoted text),
+     *  which cannot be read as literals. */
+    private static final String ARGUMENT_ESCAPES = "xupP0cNkQ";
+
+    /** A growable, ascending list of commit positions. */
+    private static class Postings implements Serializable {
+        /** The positions; only the first size are used. */
+        private int[] items = new int[2];
+        /** Number of positions. */
+        private int size;
+
+        /** Append position POS, which must exceed all present. */
+        void add(int pos) {
+            if (size > 0 && items[size - 1] == pos) {
+                return;
+            }
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size] = pos;
+            size += 1;
+        }
+
+        /** Return the positions as a new array. */
+        int[] toArray() {
+            return Arrays.copyOf(items, size);
+        }
+    }
+
+    /** Return the index of the repository whose commits, in order, are
+     *  COMMITS.  The index is brought up to date with COMMITS, rebuilding
+     *  it from the commits themselves if it is missing or does not
+     *  match. */
+    static MessageIndex load(List<ObjectId> commits) {
+        MessageIndex index = null;
+        if (INDEX_FILE.exists()) {
+            try {
+                index = Utils.readObject(INDEX_FILE, MessageIndex.class);
+                index.replayLog();
+                if (index._logged >= COMPACT_THRESHOLD
+                        && index.matches(commits) && RepoLock.tryAcquire()) {
+                    try {
+                        index.saveSnapshot();
+                    } finally {
+                        RepoLock.release();
+                    }
+                }
+            } catch (IllegalArgumentException excp) {
+                index = null;
+            }
+        }
+        if (index == null || !index.matches(commits)) {
+            index = rebuild(commits);
+        }
+        return index;
+    }
+
+    /** Return a fresh index of COMMITS, saved if there is a repository
+     *  and no other process holds its write lock.  The commits are read in
+     *  parallel. */
+    static MessageIndex rebuild(List<ObjectId> commits) {
+        MessageIndex index = new MessageIndex();
+        CommitScan.forEachOrdered(commits, commit -> commit,
+                commit -> index.insert(commit.getHashid(),
+                                       commit.getMessage()));
+        if (RepoLock.tryAcquire()) {
+            try {
+                index.saveSnapshot();
+            } finally {
+                RepoLock.release();
+            }
+        }
+        return index;
+    }
+
+    /** Record that the commit with id ID and message MESSAGE was added to
+     *  the repository by appending it to the log, without reading the
+     *  index.  Does nothing if there is no index yet, since the next load
+     *  will build one. */
+    static void append(ObjectId id, String message) {
+        append(Main.GITLET_FOLDER, id, message);
+    }
+
+    /** As for append(ID, MESSAGE), but for the repository whose .gitlet
+     *  directory is GITLET. */
+    static void append(File gitlet, ObjectId id, String message) {
+        append(gitlet, List.of(id), List.of(message));
+    }
+
+    /** As for append(ID, MESSAGE) for each of IDS in turn, with the
+     *  message at the same place in MESSAGES, in one write. */
+    static void append(List<ObjectId> ids, List<String> messages) {
+        append(Main.GITLET_FOLDER, ids, messages);
+    }
+
+    /** As for append(IDS, MESSAGES), but for the repository whose .gitlet
+     *  directory is GITLET. */
+    private static void append(File gitlet, List<ObjectId> ids,
+                               List<String> messages) {
+        File index = Utils.join(gitlet, INDEX_FILE.getName());
+        if (!index.exists()) {
+            return;
+        }
+        for (String message : messages) {
+            if (message.length() > MAX_LOGGED_LENGTH) {
+                index.delete();
+                return;
+            }
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(
+                        Utils.join(gitlet, LOG_FILE.getName()), true)))) {
+            for (int i = 0; i < ids.size(); i += 1) {
+                out.writeUTF(ids.get(i).name());
+                out.writeUTF(messages.get(i));
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write message index: %s",
+                    excp.getMessage());
+        }
+    }
+
+    /** Return the ids, in commit order, of commits whose message is
+     *  exactly MESSAGE. */
+    List<ObjectId> exact(String message) {
+        Postings hits = _exact.get(message);
+        return hits == null ? new ArrayList<>() : ids(hits.toArray());
+    }
+
+    /** Return the ids, in commit order, of commits whose message contains
+     *  TEXT. */
+    List<ObjectId> substring(String text) {
+        int[] candidates = candidates(List.of(text));
+        if (candidates == null) {
+            return scan(m -> m.contains(text));
+        }
+        return ids(IntStream.of(candidates)
+                .filter(i -> _messages.get(i).contains(text)).toArray());
+    }
+
+    /** Return the ids, in commit order, of commits whose message contains
+     *  a match of REGEX.  Literal text the regex requires narrows the
+     *  search through the trigram index; otherwise every message is
+     *  scanned in parallel. */
+    List<ObjectId> grep(String regex) {
+        Pattern pattern = Pattern.compile(regex);
+        int[] candidates = candidates(requiredLiterals(regex));
+        if (candidates == null) {
+            return scan(m -> pattern.matcher(m).find());
+        }
+        return ids(IntStream.of(candidates)
+                .filter(i -> pattern.matcher(_messages.get(i)).find())
+                .toArray());
+    }
+
+    /** Return the number of commits indexed. */
+    int size() {
+        return _ids.size();
+    }
+
+    /** Return the ids, in commit order, of all messages satisfying TEST,
+     *  checking them across all cores. */
+    private List<ObjectId> scan(Predicate<String> test) {
+        return ids(IntStream.range(0, _messages.size()).parallel()
+                .filter(i -> test.test(_messages.get(i))).toArray());
+    }
+
+    /** Return the positions of the commits whose messages contain every
+     *  trigram of every string in LITERALS, or null if no string in
+     *  LITERALS is long enough to narrow the search. */
+    private int[] candidates(List<String> literals) {
+        int[] result = null;
+        for (String literal : literals) {
+            for (int i = 0; i + GRAM <= literal.length(); i += 1) {
+                Postings postings = _grams.get(literal.substring(i, i + GRAM));
+                if (postings == null) {
+                    return new int[0];
+                }
+                result = result == null ? postings.toArray()
+                    : intersect(result, postings);
+                if (result.length == 0) {
+                    return result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return the positions present in both A and B, both ascending. */
+    private static int[] intersect(int[] a, Postings b) {
+        int[] result = new int[Math.min(a.length, b.size)];
+        int n, i, j;
+        n = i = j = 0;
+        while (i < a.length && j < b.size) {
+            if (a[i] < b.items[j]) {
+                i += 1;
+            } else if (a[i] > b.items[j]) {
+                j += 1;
+            } else {
+                result[n] = a[i];
+                n += 1;
+                i += 1;
+                j += 1;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Return runs of literal text that any match of REGEX must contain.
+     *  This is deliberately conservative: alternation, quoting, inline
+     *  flags and special groups, escapes that take arguments (such as
+     *  \x41 or \p{Alpha}), and classes nested in or intersected with
+     *  other classes disable narrowing entirely, and text inside
+     *  groups or character classes, or made optional by a following
+     *  quantifier, is ignored. */
+    static List<String> requiredLiterals(String regex) {
+        ArrayList<String> result = new ArrayList<>();
+        if (regex.contains("|")) {
+            return result;
+        }
+        StringBuilder run = new StringBuilder();
+        int depth = 0;
+        boolean inclass = false;
+        int classstart = -1;
+        for (int i = 0; i < regex.length(); i += 1) {
+            char c = regex.charAt(i);
+            char literal = 0;
+            if (c == '\\' && i + 1 < regex.length()) {
+                i += 1;
+                char next = regex.charAt(i);
+                if (ARGUMENT_ESCAPES.indexOf(next) >= 0) {
+                    return new ArrayList<>();
+                } else if (!Character.isLetterOrDigit(next)) {
+                    literal = next;
+                }
+            } else if (inclass) {
+                if (c == '[') {
+                    return new ArrayList<>();
+                }
+                inclass = c != ']' || i == classstart;
+            } else if (c == '[') {
+                inclass = true;
+                classstart = i + 1 < regex.length()
+                    && regex.charAt(i + 1) == '^' ? i + 2 : i + 1;
+            } else if (c == '(') {
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == '?') {
+                    return new ArrayList<>();
+                }
+                depth += 1;
+            } else if (c == ')') {
+                depth -= 1;
+            } else if (".^$*+?{}".indexOf(c) < 0) {
+                literal = c;
+            }
+            boolean optional = i + 1 < regex.length()
+                && "?*{".indexOf(regex.charAt(i + 1)) >= 0;
+            if (literal != 0 && depth == 0 && !inclass && !optional) {
+                run.append(literal);
+            } else {
+                if (run.length() >= GRAM) {
+                    result.add(run.toString());
+                }
+                run.setLength(0);
+            }
+        }
+        if (run.length() >= GRAM) {
+            result.add(run.toString());
+        }
+        return result;
+    }
+
+    /** Return the commit ids at positions POSITIONS. */
+    private List<ObjectId> ids(int[] positions) {
+        ArrayList<ObjectId> result = new ArrayList<>(positions.length);
+        for (int pos : positions) {
+            result.add(_ids.get(pos));
+        }
+        return result;
+    }
+
+    /** Add the commit with id ID and message MESSAGE to the in-memory
+     *  index. */
+    private void insert(ObjectId id, String message) {
+        int pos = _ids.size();
+        _ids.add(id);
+        _messages.add(message);
+        _exact.computeIfAbsent(message, k -> new Postings()).add(pos);
+        HashSet<String> seen = new HashSet<>();
+        for (int i = 0; i + GRAM <= message.length(); i += 1) {
+            String gram = message.substring(i, i + GRAM);
+            if (seen.add(gram)) {
+                _grams.computeIfAbsent(gram, k -> new Postings()).add(pos);
+            }
+        }
+    }
+
+    /** Return true iff this index covers exactly COMMITS, in order.  Only
+     *  the ends are compared; commits are only ever appended. */
+    private boolean matches(List<ObjectId> commits) {
+        int n = commits.size();
+        return n == _ids.size()
+            && (n == 0 || commits.get(n - 1).equals(_ids.get(n - 1)));
+    }
+
+    /** Write a full snapshot of this index and empty the log.  A reader
+     *  between the two steps sees the new snapshot with the old log, finds
+     *  that it does not match, and rebuilds its copy in memory. */
+    private void saveSnapshot() {
+        _logged = 0;
+        Utils.replaceObject(INDEX_FILE, this);
+        LOG_FILE.delete();
+    }
+
+    /** Apply the entries logged since the snapshot was written. */
+    private void replayLog() {
+        if (!LOG_FILE.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(LOG_FILE)))) {
+            while (true) {
+                ObjectId id = ObjectId.fromHex(in.readUTF());
+                insert(id, in.readUTF());
+                _logged += 1;
+            }
+        } catch (EOFException excp) {
+            return;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Ids of the indexed commits, in commit order. */
+    private ArrayList<ObjectId> _ids = new ArrayList<>();
+    /** Message of each indexed commit, parallel to _ids. */
+    private ArrayList<String> _messages = new ArrayList<>();
+    /** Positions of the commits with each distinct message. */
+    private HashMap<String, Postings> _exact = new HashMap<>();
+    /** Positions of the commits whose message contains each trigram. */
+    private HashMap<String, Postings> _grams = new HashMap<>();
+    /** Number of entries in the log file. */
+    private transient int _logged;
+}
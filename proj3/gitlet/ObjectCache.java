@@ -0,0 +1,160 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** A least-recently-used cache of decoded commits and small blobs, bounded
+ *  by the number of bytes the cached objects occupy on disk rather than by
+ *  the number of entries.  Objects are addressed by their hash id and never
+ *  change once written, so entries stay valid across ref updates; the only
+ *  time an entry must be dropped is when its object file is deleted, which
+ *  is what invalidate is for.  The cache is static, so every command run in
+ *  the same process shares it.
+ *  @author Daniel Ngo
+ */
+class ObjectCache {
+
+    /** Default capacity of the cache in bytes. */
+    static final long DEFAULT_CAPACITY = 32L * 1024 * 1024;
+    /** Blobs larger than this many bytes are never cached. */
+    static final long MAX_BLOB_SIZE = 256L * 1024;
+
+    /** One cached object together with the bytes it is charged for. */
+    private static class Entry {
+        /** The decoded object. */
+        private final Object value;
+        /** Size charged against the capacity. */
+        private final long size;
+
+        Entry(Object thevalue, long thesize) {
+            value = thevalue;
+            size = thesize;
+        }
+    }
+
+    /** Cached objects keyed by id, in access order.  Commits and blobs
+     *  share the map, since no commit has the id of a blob. */
+    private static final LinkedHashMap<ObjectId, Entry> ENTRIES =
+        new LinkedHashMap<>(256, 0.75f, true);
+    /** Maximum number of bytes held. */
+    private static long capacity = Long.getLong("gitlet.cache.bytes",
+            DEFAULT_CAPACITY);
+    /** Number of bytes currently held. */
+    private static long used;
+    /** Number of lookups answered from the cache. */
+    private static long hits;
+    /** Number of lookups that had to go to disk. */
+    private static long misses;
+
+    /** Return the commit with id ID, reading it from the commit folder only
+     *  if it is not already cached. */
+    static Commit readCommit(ObjectId id) {
+        synchronized (ObjectCache.class) {
+            Entry entry = ENTRIES.get(id);
+            if (entry != null && entry.value instanceof Commit) {
+                hits += 1;
+                return (Commit) entry.value;
+            }
+            misses += 1;
+        }
+        File file = Utils.join(Commit.COMMIT_FOLDER, id.name());
+        Commit result = Commit.read(id);
+        put(id, result, file.length());
+        return result;
+    }
+
+    /** Return the contents of the blob with id ID as a String, fetching it
+     *  first if this is a partial clone that lacks it and reassembling it
+     *  if it is chunked.  Blobs no bigger than MAX_BLOB_SIZE are kept in
+     *  the cache. */
+    static String readBlob(ObjectId id) {
+        synchronized (ObjectCache.class) {
+            Entry entry = ENTRIES.get(id);
+            if (entry != null && entry.value instanceof String) {
+                hits += 1;
+                return (String) entry.value;
+            }
+            misses += 1;
+        }
+        File file = Utils.join(Blobs.BLOB_FOLDER, id.name());
+        if (!file.exists()) {
+            Promisor.prefetch(List.of(id));
+        }
+        String result = ChunkStore.read(file);
+        if (result.length() <= MAX_BLOB_SIZE) {
+            put(id, result, result.length());
+        }
+        return result;
+    }
+
+    /** Add VALUE under KEY, charging SIZE bytes, and evict the least
+     *  recently used entries until the cache fits its capacity again. */
+    private static synchronized void put(ObjectId key, Object value,
+                                         long size) {
+        if (size > capacity) {
+            return;
+        }
+        Entry old = ENTRIES.put(key, new Entry(value, size));
+        if (old != null) {
+            used -= old.size;
+        }
+        used += size;
+        Iterator<Map.Entry<ObjectId, Entry>> iter =
+            ENTRIES.entrySet().iterator();
+        while (used > capacity && iter.hasNext()) {
+            used -= iter.next().getValue().size;
+            iter.remove();
+        }
+    }
+
+    /** Forget any cached copy of the object with id ID, e.g. because its
+     *  file has been deleted. */
+    static synchronized void invalidate(ObjectId id) {
+        Entry old = ENTRIES.remove(id);
+        if (old != null) {
+            used -= old.size;
+        }
+    }
+
+    /** Empty the cache.  Hit and miss counts are kept. */
+    static synchronized void clear() {
+        ENTRIES.clear();
+        used = 0;
+    }
+
+    /** Set the capacity of the cache to BYTES, evicting as needed. */
+    static synchronized void setCapacity(long bytes) {
+        capacity = bytes;
+        Iterator<Map.Entry<ObjectId, Entry>> iter =
+            ENTRIES.entrySet().iterator();
+        while (used > capacity && iter.hasNext()) {
+            used -= iter.next().getValue().size;
+            iter.remove();
+        }
+    }
+
+    /** Return the number of lookups answered from the cache. */
+    static synchronized long hits() {
+        return hits;
+    }
+
+    /** Return the number of lookups that had to read from disk. */
+    static synchronized long misses() {
+        return misses;
+    }
+
+    /** Return the number of bytes currently held. */
+    static synchronized long used() {
+        return used;
+    }
+
+    /** Return a one-line summary of the cache counters. */
+    static synchronized String stats() {
+        return String.format("object cache: %d hits, %d misses, "
+                + "%d entries, %d/%d bytes", hits, misses, ENTRIES.size(),
+                used, capacity);
+    }
+}
@@ -0,0 +1,164 @@
+package gitlet;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/** The id of a commit, blob or chunk: the raw bytes of its hash, rather
+ *  than the hex digits gitlet prints.  A SHA-1 id is two longs and an int,
+ *  a third of the heap of its hex String, and ids compare and hash a word
+ *  at a time.  Longer hashes keep their remaining bytes in a tail array.
+ *  Ids are immutable.  Hex digits are only for the command line and for
+ *  the files that name objects (see name and fromHex).
+ *  @author Daniel Ngo
+ */
+final class ObjectId implements Comparable<ObjectId>, Serializable {
+
+    /** Number of bytes in a SHA-1 id, all of which fit in the words. */
+    static final int WORD_BYTES = 20;
+
+    /** An id whose first WORD_BYTES bytes are W0, W1 and W2, big-endian,
+     *  followed by TAIL, or by nothing if TAIL is null. */
+    private ObjectId(long w0, long w1, int w2, byte[] tail) {
+        _w0 = w0;
+        _w1 = w1;
+        _w2 = w2;
+        _tail = tail;
+    }
+
+    /** Return the id whose bytes are BYTES, a hash of at least
+     *  WORD_BYTES bytes. */
+    static ObjectId of(byte[] bytes) {
+        if (bytes.length < WORD_BYTES) {
+            throw new IllegalArgumentException("id too short");
+        }
+        return new ObjectId(word(bytes, 0, 8), word(bytes, 8, 8),
+                (int) word(bytes, 16, 4),
+                bytes.length == WORD_BYTES ? null
+                : Arrays.copyOfRange(bytes, WORD_BYTES, bytes.length));
+    }
+
+    /** Return the id written as the hex digits HEX.  Throws
+     *  IllegalArgumentException unless HEX is a whole id. */
+    static ObjectId fromHex(String hex) {
+        if (!isHex(hex)) {
+            throw new IllegalArgumentException("not an object id: " + hex);
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i += 1) {
+            bytes[i] = (byte) (Character.digit(hex.charAt(2 * i), 16) << 4
+                               | Character.digit(hex.charAt(2 * i + 1), 16));
+        }
+        return of(bytes);
+    }
+
+    /** Return the id written as HEX, or null if HEX is null or not an
+     *  id. */
+    static ObjectId parse(String hex) {
+        return hex != null && isHex(hex) ? fromHex(hex) : null;
+    }
+
+    /** Return true iff S is a whole id in lower-case hex digits. */
+    static boolean isHex(String s) {
+        if (s.length() < 2 * WORD_BYTES || s.length() % 2 != 0) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i += 1) {
+            char c = s.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the bytes of this id. */
+    byte[] toBytes() {
+        int tail = _tail == null ? 0 : _tail.length;
+        byte[] result = new byte[WORD_BYTES + tail];
+        for (int i = 0; i < 8; i += 1) {
+            result[i] = (byte) (_w0 >>> (56 - 8 * i));
+            result[8 + i] = (byte) (_w1 >>> (56 - 8 * i));
+        }
+        for (int i = 0; i < 4; i += 1) {
+            result[16 + i] = (byte) (_w2 >>> (24 - 8 * i));
+        }
+        if (tail > 0) {
+            System.arraycopy(_tail, 0, result, WORD_BYTES, tail);
+        }
+        return result;
+    }
+
+    /** Return this id as lower-case hex digits. */
+    String name() {
+        return Hashing.hex(toBytes());
+    }
+
+    /** Return the first DIGITS hex digits of this id. */
+    String abbreviate(int digits) {
+        return name().substring(0, digits);
+    }
+
+    /** Return true iff this id's hex digits start with PREFIX. */
+    boolean startsWith(String prefix) {
+        return name().startsWith(prefix);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ObjectId)) {
+            return false;
+        }
+        ObjectId other = (ObjectId) obj;
+        return _w0 == other._w0 && _w1 == other._w1 && _w2 == other._w2
+            && Arrays.equals(_tail, other._tail);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) _w0;
+    }
+
+    @Override
+    public int compareTo(ObjectId other) {
+        int result = Long.compareUnsigned(_w0, other._w0);
+        if (result == 0) {
+            result = Long.compareUnsigned(_w1, other._w1);
+        }
+        if (result == 0) {
+            result = Integer.compareUnsigned(_w2, other._w2);
+        }
+        if (result == 0) {
+            result = Arrays.compareUnsigned(
+                    _tail == null ? new byte[0] : _tail,
+                    other._tail == null ? new byte[0] : other._tail);
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return name();
+    }
+
+    /** Return the N bytes of BYTES from START as a big-endian number. */
+    private static long word(byte[] bytes, int start, int n) {
+        long result = 0;
+        for (int i = start; i < start + n; i += 1) {
+            result = result << 8 | (bytes[i] & 0xff);
+        }
+        return result;
+    }
+
+    /** Fixed so that serialized ids stay readable. */
+    private static final long serialVersionUID = 1L;
+
+    /** The first WORD_BYTES bytes. */
+    private final long _w0, _w1;
+    /** Bytes 16 to 19. */
+    private final int _w2;
+    /** The bytes after the first WORD_BYTES, or null if there are none. */
+    private final byte[] _tail;
+}
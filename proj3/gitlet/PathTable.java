@@ -0,0 +1,83 @@
+package gitlet;
+
+import java.util.Arrays;
+
+/** Gives each file path a small int id, shared by every commit read in
+ *  this process, so that a path held by many commits is stored once and
+ *  commit listings (see FileList) can hold and compare plain ints.  Ids
+ *  are handed out in order from 0 and never change or go away while the
+ *  process runs; they are not stored on disk.  Paths are found through an
+ *  open-addressing table of ids, probed linearly.
+ *  @author Daniel Ngo
+ */
+class PathTable {
+
+    /** Initial number of slots; a power of two. */
+    private static final int INITIAL_SLOTS = 1 << 10;
+
+    /** Return the id of PATH, giving it the next id if it has none. */
+    static synchronized int intern(String path) {
+        int slot = slot(path);
+        if (_slots[slot] != 0) {
+            return _slots[slot] - 1;
+        }
+        if (_size == _paths.length) {
+            _paths = Arrays.copyOf(_paths, _size * 2);
+        }
+        _paths[_size] = path;
+        _size += 1;
+        _slots[slot] = _size;
+        if (_size * 2 > _slots.length) {
+            resize();
+        }
+        return _size - 1;
+    }
+
+    /** Return the id of PATH, or -1 if it has none. */
+    static synchronized int find(String path) {
+        return _slots[slot(path)] - 1;
+    }
+
+    /** Return the path whose id is ID. */
+    static synchronized String path(int id) {
+        return _paths[id];
+    }
+
+    /** Return the number of paths with ids. */
+    static synchronized int size() {
+        return _size;
+    }
+
+    /** Return the slot holding PATH's id, or the empty slot where it
+     *  would go. */
+    private static int slot(String path) {
+        int mask = _slots.length - 1;
+        int slot = mix(path.hashCode()) & mask;
+        while (_slots[slot] != 0
+               && !_paths[_slots[slot] - 1].equals(path)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /** Double the number of slots and put every id back. */
+    private static void resize() {
+        _slots = new int[_slots.length * 2];
+        for (int id = 0; id < _size; id += 1) {
+            _slots[slot(_paths[id])] = id + 1;
+        }
+    }
+
+    /** Return H with its bits mixed, so that similar paths spread. */
+    private static int mix(int h) {
+        h *= 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    /** Id plus one of the path in each slot, or 0 for an empty slot. */
+    private static int[] _slots = new int[INITIAL_SLOTS];
+    /** Paths by id; only the first _size are used. */
+    private static String[] _paths = new String[INITIAL_SLOTS / 2];
+    /** Number of paths with ids. */
+    private static int _size;
+}
@@ -0,0 +1,53 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+
+/** Supplies the blobs that a partial clone left behind.  A repository
+ *  cloned with --filter=blob:none records the .gitlet directory it was
+ *  cloned from, and blobs missing from the object store are copied from
+ *  there the first time they are needed.  Commands that need many blobs at
+ *  once prefetch them as one batch, and fetched blobs are kept like any
+ *  other, so each is copied at most once.
+ *  @author Daniel Ngo
+ */
+class Promisor {
+
+    /** Holds the path of the .gitlet directory missing blobs come from. */
+    static final File PROMISOR_FILE = Utils.join(Main.GITLET_FOLDER,
+            "promisor");
+
+    /** Return true iff this repository is a partial clone. */
+    static boolean isPartial() {
+        return PROMISOR_FILE.isFile();
+    }
+
+    /** Make the repository whose .gitlet directory is REMOTE the source of
+     *  missing blobs. */
+    static void set(File remote) {
+        Utils.writeContents(PROMISOR_FILE, remote.getAbsolutePath());
+    }
+
+    /** Copy whichever of the blobs with ids IDS are missing from the
+     *  promisor remote, as one batch.  Does nothing unless this repository
+     *  is a partial clone. */
+    static void prefetch(Collection<ObjectId> ids) {
+        if (!isPartial()) {
+            return;
+        }
+        LinkedHashSet<ObjectId> missing = new LinkedHashSet<>();
+        for (ObjectId id : ids) {
+            if (!Utils.join(Blobs.BLOB_FOLDER, id.name()).exists()) {
+                missing.add(id);
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        File remote = new File(Utils.readContentsAsString(PROMISOR_FILE));
+        Transfer transfer = new Transfer(remote, Main.GITLET_FOLDER);
+        transfer.addBlobs(missing);
+        transfer.run();
+    }
+}
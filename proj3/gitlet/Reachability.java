@@ -0,0 +1,316 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/** Answers "which objects can this commit reach?" without walking the
+ *  whole history.  Every commit and blob is given a stable position in an
+ *  append-only object index, and the set of objects reachable from a
+ *  commit is a compressed Bitmap over those positions.  Bitmaps are kept
+ *  for recent branch tips, so the objects reachable from a tip are its
+ *  nearest stored ancestor's bitmap plus whatever was committed since, and
+ *  "reachable from A but not from B" is a single andNot.  Positions are
+ *  found by binary search in one sorted array of longs, not through a map
+ *  of every object, and when gc deletes objects the index is compacted
+ *  and the stored bitmaps rebased onto the new positions (see compact).
+ *  @author Daniel Ngo
+ */
+class Reachability {
+
+    /** Append-only list of every indexed object, one "c id" or "b id" line
+     *  per object, in position order. */
+    static final File INDEX_FILE = Utils.join(Main.GITLET_FOLDER,
+            "object-index");
+    /** Stored bitmaps. */
+    static final File BITMAP_FILE = Utils.join(Main.GITLET_FOLDER,
+            "bitmaps");
+    /** Maximum number of bitmaps kept. */
+    static final int MAX_BITMAPS = 64;
+
+    /** Stored bitmaps and the size of the object index they refer to. */
+    private static class Stored implements Serializable {
+        /** Bitmaps by commit id in hex, oldest first. */
+        private LinkedHashMap<String, Bitmap> bitmaps = new LinkedHashMap<>();
+        /** Number of objects indexed when the bitmaps were written. */
+        private int indexed;
+    }
+
+    /** Return the reachability index of this repository. */
+    static Reachability load() {
+        Reachability result = new Reachability();
+        if (INDEX_FILE.exists()) {
+            try (BufferedReader in = new BufferedReader(
+                    new FileReader(INDEX_FILE))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.length() > 2) {
+                        if (line.charAt(0) == 'c') {
+                            result._commits.set(result._ids.size());
+                        }
+                        result._ids.add(ObjectId.fromHex(line.substring(2)));
+                    }
+                }
+            } catch (IOException | IllegalArgumentException excp) {
+                throw Utils.error("Cannot read object index: %s",
+                        excp.getMessage());
+            }
+        }
+        result._saved = result._ids.size();
+        result.sortKeys();
+        if (BITMAP_FILE.exists()) {
+            try {
+                Stored stored = Utils.readObject(BITMAP_FILE, Stored.class);
+                if (stored.indexed <= result._ids.size()) {
+                    result._stored = stored;
+                }
+            } catch (IllegalArgumentException excp) {
+                result._stored = new Stored();
+            }
+        }
+        return result;
+    }
+
+    /** Return the bitmap of every object reachable from the commit with
+     *  id COMMIT, including the commit itself. */
+    Bitmap reach(ObjectId commit) {
+        Bitmap stored = _stored.bitmaps.get(commit.name());
+        if (stored != null) {
+            return stored;
+        }
+        BitSet bits = new BitSet(_ids.size());
+        ArrayList<ObjectId> work = new ArrayList<>();
+        work.add(commit);
+        while (!work.isEmpty()) {
+            ObjectId id = work.remove(work.size() - 1);
+            if (id == null) {
+                continue;
+            }
+            stored = _stored.bitmaps.get(id.name());
+            if (stored != null) {
+                stored.orInto(bits);
+                continue;
+            }
+            int pos = position(id, true);
+            if (bits.get(pos)) {
+                continue;
+            }
+            bits.set(pos);
+            Commit c = ObjectCache.readCommit(id);
+            for (ObjectId blob : c.getBlob().values()) {
+                bits.set(position(blob, false));
+            }
+            work.add(c.getParent());
+            work.add(c.getSecondparent());
+        }
+        return Bitmap.of(bits);
+    }
+
+    /** Return the bitmap of every object reachable from any of the commits
+     *  with ids COMMITS. */
+    Bitmap reachAll(Collection<ObjectId> commits) {
+        Bitmap result = Bitmap.EMPTY;
+        for (ObjectId commit : commits) {
+            result = result.or(reach(commit));
+        }
+        return result;
+    }
+
+    /** Store the bitmaps of the commits with ids TIPS, so that later
+     *  queries on them or their descendants are cheap, dropping the oldest
+     *  bitmaps beyond MAX_BITMAPS.  Saves the index. */
+    void remember(Collection<ObjectId> tips) {
+        for (ObjectId tip : tips) {
+            Bitmap bitmap = reach(tip);
+            _stored.bitmaps.remove(tip.name());
+            _stored.bitmaps.put(tip.name(), bitmap);
+        }
+        Iterator<String> oldest = _stored.bitmaps.keySet().iterator();
+        while (_stored.bitmaps.size() > MAX_BITMAPS) {
+            oldest.next();
+            oldest.remove();
+        }
+        save();
+    }
+
+    /** Drop the bitmaps of the commits with ids COMMITS, which no longer
+     *  exist. */
+    void forget(Collection<ObjectId> commits) {
+        for (ObjectId commit : commits) {
+            _stored.bitmaps.remove(commit.name());
+        }
+    }
+
+    /** Remove the objects with ids REMOVED, which gc deleted, from the
+     *  index, moving the objects after them down and the bits of the
+     *  stored bitmaps with them, so that neither keeps growing with
+     *  objects that are gone.  The next save rewrites the index file. */
+    void compact(Set<ObjectId> removed) {
+        int[] moved = new int[_ids.size()];
+        ArrayList<ObjectId> ids = new ArrayList<>(_ids.size());
+        BitSet commits = new BitSet();
+        for (int pos = 0; pos < moved.length; pos += 1) {
+            ObjectId id = _ids.get(pos);
+            if (removed.contains(id)) {
+                moved[pos] = -1;
+                continue;
+            }
+            moved[pos] = ids.size();
+            if (_commits.get(pos)) {
+                commits.set(ids.size());
+            }
+            ids.add(id);
+        }
+        if (ids.size() == _ids.size()) {
+            return;
+        }
+        for (Map.Entry<String, Bitmap> e : _stored.bitmaps.entrySet()) {
+            BitSet bits = new BitSet(ids.size());
+            e.getValue().forEach(pos -> {
+                    if (moved[pos] >= 0) {
+                        bits.set(moved[pos]);
+                    }
+                });
+            e.setValue(Bitmap.of(bits));
+        }
+        _ids.clear();
+        _ids.addAll(ids);
+        _commits.clear();
+        _commits.or(commits);
+        sortKeys();
+        _saved = 0;
+    }
+
+    /** Return the id of the object at position POS. */
+    ObjectId id(int pos) {
+        return _ids.get(pos);
+    }
+
+    /** Return true iff the object at position POS is a commit. */
+    boolean isCommit(int pos) {
+        return _commits.get(pos);
+    }
+
+    /** Return the position of the object with id ID, or -1 if it has none
+     *  yet. */
+    int position(ObjectId id) {
+        int hash = id.hashCode();
+        long target = (long) hash << 32;
+        int lo = 0, hi = _keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (_keys[mid] < target) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int k = lo; k < _keys.length && (int) (_keys[k] >> 32) == hash;
+             k += 1) {
+            int pos = (int) _keys[k];
+            if (_ids.get(pos).equals(id)) {
+                return pos;
+            }
+        }
+        Integer pos = _fresh.get(id);
+        return pos == null ? -1 : pos;
+    }
+
+    /** Return the number of objects indexed. */
+    int size() {
+        return _ids.size();
+    }
+
+    /** Return the position of the object with id ID, which is a commit iff
+     *  COMMIT, giving it the next free position if it has none. */
+    private int position(ObjectId id, boolean commit) {
+        int pos = position(id);
+        if (pos < 0) {
+            pos = addEntry(id, commit);
+        }
+        return pos;
+    }
+
+    /** Give the object with id ID, a commit iff COMMIT, the next position
+     *  and return it. */
+    private int addEntry(ObjectId id, boolean commit) {
+        int pos = _ids.size();
+        _ids.add(id);
+        _fresh.put(id, pos);
+        if (commit) {
+            _commits.set(pos);
+        }
+        return pos;
+    }
+
+    /** Put the key of every position in _keys, sorted, and forget the
+     *  positions given since the last sort. */
+    private void sortKeys() {
+        _keys = new long[_ids.size()];
+        for (int pos = 0; pos < _keys.length; pos += 1) {
+            _keys[pos] = (long) _ids.get(pos).hashCode() << 32 | pos;
+        }
+        Arrays.sort(_keys);
+        _fresh.clear();
+    }
+
+    /** Append new index entries, or rewrite the index after compact, then
+     *  write the bitmaps.  A rewrite deletes the bitmaps first, so a crash
+     *  before they are written again loses them rather than leaving them
+     *  to be read against the wrong positions. */
+    private void save() {
+        if (_saved == 0 && INDEX_FILE.exists()) {
+            BITMAP_FILE.delete();
+            StringBuilder index = new StringBuilder();
+            for (int pos = 0; pos < _ids.size(); pos += 1) {
+                index.append(_commits.get(pos) ? "c " : "b ")
+                    .append(_ids.get(pos).name()).append('\n');
+            }
+            Utils.replaceContents(INDEX_FILE, index.toString());
+        } else {
+            try (BufferedWriter out = new BufferedWriter(
+                    new FileWriter(INDEX_FILE, true))) {
+                for (int pos = _saved; pos < _ids.size(); pos += 1) {
+                    out.write(_commits.get(pos) ? "c " : "b ");
+                    out.write(_ids.get(pos).name());
+                    out.newLine();
+                }
+            } catch (IOException excp) {
+                throw Utils.error("Cannot write object index: %s",
+                        excp.getMessage());
+            }
+        }
+        _saved = _ids.size();
+        _stored.indexed = _ids.size();
+        Utils.writeObject(BITMAP_FILE, _stored);
+    }
+
+    /** Object ids by position. */
+    private final ArrayList<ObjectId> _ids = new ArrayList<>();
+    /** A key for each position indexed when _keys was last sorted: the
+     *  hash code of the object's id in the high 32 bits and the position in
+     *  the low, in ascending order. */
+    private long[] _keys = new long[0];
+    /** Positions given since _keys was sorted, by object id.  Few, except
+     *  while the index is first built. */
+    private final HashMap<ObjectId, Integer> _fresh = new HashMap<>();
+    /** Positions of commits. */
+    private final BitSet _commits = new BitSet();
+    /** Number of entries already in INDEX_FILE. */
+    private int _saved;
+    /** The stored bitmaps. */
+    private Stored _stored = new Stored();
+}
@@ -0,0 +1,310 @@
+package gitlet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Pairs files deleted between two trees with files added, as renames.
+ *  Files whose contents are identical are paired first, by a hash of
+ *  their contents alone (blob ids cannot be compared, since a blob id
+ *  covers the file name), read one file or chunk at a time.  Only the
+ *  files left over are decoded and held, to be compared by similarity of
+ *  their sets of segments (lines, cut every SEGMENT bytes if longer),
+ *  estimated from a one-permutation MinHash sketch of BINS bins, or
+ *  computed exactly for files with few segments.
+ *  Pairs whose sizes differ too much to reach THRESHOLD are never
+ *  compared, and with many candidates only pairs that share a band of
+ *  their sketches are compared, so the work grows with the number of
+ *  likely renames rather than with the product of the two sides.
+ *  @author Daniel Ngo
+ */
+class RenameDetector {
+
+    /** Least similarity of a rename. */
+    static final double THRESHOLD = 0.5;
+    /** Number of bins in a sketch; a power of two. */
+    static final int BINS = 32;
+    /** Bins per band when bucketing sketches. */
+    static final int ROWS = 2;
+    /** Longest segment. */
+    static final int SEGMENT = 64;
+    /** Files with at most this many distinct segments are compared
+     *  exactly. */
+    static final int SMALL = 256;
+    /** With at most this many deleted-added pairs, every pair of
+     *  compatible size is compared. */
+    static final long PAIR_LIMIT = 1 << 12;
+    /** Marks an empty bin. */
+    private static final long EMPTY = Long.MAX_VALUE;
+
+    /** A file of the old tree that became a file of the new one. */
+    static final class Rename {
+        /** Names before and after. */
+        private final String _from, _to;
+        /** True iff the contents are unchanged. */
+        private final boolean _exact;
+
+        /** A rename of FROM to TO, with unchanged contents iff EXACT. */
+        Rename(String from, String to, boolean exact) {
+            _from = from;
+            _to = to;
+            _exact = exact;
+        }
+
+        /** Return the old name. */
+        String from() {
+            return _from;
+        }
+
+        /** Return the new name. */
+        String to() {
+            return _to;
+        }
+
+        /** Return true iff the contents are unchanged. */
+        boolean exact() {
+            return _exact;
+        }
+    }
+
+    /** Return the renames found between DELETED and ADDED, maps from the
+     *  names of files only in the old tree, and only in the new one, to
+     *  their blob ids.  Each file is in at most one rename; renames are
+     *  ordered by old name. */
+    static List<Rename> detect(Map<String, ObjectId> deleted,
+                               Map<String, ObjectId> added) {
+        TreeMap<String, Rename> result = new TreeMap<>();
+        if (deleted.isEmpty() || added.isEmpty()) {
+            return new ArrayList<>();
+        }
+        HashMap<ObjectId, ArrayDeque<String>> byContent = new HashMap<>();
+        for (String name : new TreeMap<>(added).keySet()) {
+            byContent.computeIfAbsent(
+                ChunkStore.contentId(added.get(name)),
+                k -> new ArrayDeque<>()).add(name);
+        }
+        TreeMap<String, String> olds = new TreeMap<>(),
+            news = new TreeMap<>();
+        for (String name : new TreeMap<>(deleted).keySet()) {
+            ArrayDeque<String> same =
+                byContent.get(ChunkStore.contentId(deleted.get(name)));
+            if (same != null && !same.isEmpty()) {
+                String to = same.remove();
+                result.put(name, new Rename(name, to, true));
+            } else {
+                olds.put(name, ObjectCache.readBlob(deleted.get(name)));
+            }
+        }
+        for (ArrayDeque<String> names : byContent.values()) {
+            for (String name : names) {
+                news.put(name, ObjectCache.readBlob(added.get(name)));
+            }
+        }
+        for (Rename rename : similar(olds, news)) {
+            result.put(rename.from(), rename);
+        }
+        return new ArrayList<>(result.values());
+    }
+
+    /** Return the inexact renames between OLDS and NEWS, maps from file
+     *  names to contents. */
+    private static List<Rename> similar(TreeMap<String, String> olds,
+                                        TreeMap<String, String> news) {
+        if (olds.isEmpty() || news.isEmpty()) {
+            return List.of();
+        }
+        List<String> oldnames = new ArrayList<>(olds.keySet());
+        List<String> newnames = new ArrayList<>(news.keySet());
+        Sketch[] oldsketches = oldnames.parallelStream()
+            .map(name -> new Sketch(olds.get(name))).toArray(Sketch[]::new);
+        Sketch[] newsketches = newnames.parallelStream()
+            .map(name -> new Sketch(news.get(name))).toArray(Sketch[]::new);
+        ArrayList<double[]> pairs = new ArrayList<>();
+        if ((long) oldsketches.length * newsketches.length <= PAIR_LIMIT) {
+            for (int i = 0; i < oldsketches.length; i += 1) {
+                for (int j = 0; j < newsketches.length; j += 1) {
+                    score(oldsketches, i, newsketches, j, pairs);
+                }
+            }
+        } else {
+            HashMap<Long, List<Integer>> buckets = new HashMap<>();
+            List<Integer> none = List.of();
+            for (int j = 0; j < newsketches.length; j += 1) {
+                for (long key : newsketches[j].bands()) {
+                    buckets.computeIfAbsent(key, k -> new ArrayList<>())
+                        .add(j);
+                }
+            }
+            for (int i = 0; i < oldsketches.length; i += 1) {
+                HashSet<Integer> seen = new HashSet<>();
+                for (long key : oldsketches[i].bands()) {
+                    for (int j : buckets.getOrDefault(key, none)) {
+                        if (seen.add(j)) {
+                            score(oldsketches, i, newsketches, j, pairs);
+                        }
+                    }
+                }
+            }
+        }
+        pairs.sort(Comparator.<double[]>comparingDouble(p -> -p[0])
+                .thenComparingDouble(p -> p[1])
+                .thenComparingDouble(p -> p[2]));
+        boolean[] oldused = new boolean[oldsketches.length];
+        boolean[] newused = new boolean[newsketches.length];
+        ArrayList<Rename> result = new ArrayList<>();
+        for (double[] pair : pairs) {
+            int i = (int) pair[1], j = (int) pair[2];
+            if (!oldused[i] && !newused[j]) {
+                oldused[i] = newused[j] = true;
+                result.add(new Rename(oldnames.get(i), newnames.get(j),
+                        false));
+            }
+        }
+        return result;
+    }
+
+    /** Add {similarity, I, J} to PAIRS if the Ith of OLDS and the Jth of
+     *  NEWS are similar enough to be a rename. */
+    private static void score(Sketch[] olds, int i, Sketch[] news, int j,
+                              List<double[]> pairs) {
+        Sketch a = olds[i], b = news[j];
+        if (Math.min(a._length, b._length)
+                < THRESHOLD * Math.max(a._length, b._length)) {
+            return;
+        }
+        double similarity = a.similarity(b);
+        if (similarity >= THRESHOLD) {
+            pairs.add(new double[] {similarity, i, j});
+        }
+    }
+
+    /** A summary of the segments of a file. */
+    private static final class Sketch {
+        /** Sketch of CONTENT. */
+        Sketch(String content) {
+            _length = content.length();
+            _bins = new long[BINS];
+            Arrays.fill(_bins, EMPTY);
+            long[] segments = new long[4 * SMALL];
+            int count = 0;
+            int start = 0;
+            while (start < content.length()) {
+                int end = content.indexOf('\n', start);
+                end = end < 0 ? content.length() : end + 1;
+                end = Math.min(end, start + SEGMENT);
+                long h = hash(content, start, end);
+                if (count < segments.length) {
+                    segments[count] = h;
+                }
+                count += 1;
+                int bin = (int) (h >>> (64 - Integer.numberOfTrailingZeros(
+                        BINS)));
+                _bins[bin] = Math.min(_bins[bin], h);
+                start = end;
+            }
+            _segments = count <= segments.length
+                ? distinct(segments, count) : null;
+        }
+
+        /** Return the similarity of this file to OTHER's, between 0 and
+         *  1. */
+        double similarity(Sketch other) {
+            if (_segments != null && other._segments != null) {
+                return jaccard(_segments, other._segments);
+            }
+            int same = 0, used = 0;
+            for (int k = 0; k < BINS; k += 1) {
+                if (_bins[k] != EMPTY || other._bins[k] != EMPTY) {
+                    used += 1;
+                    if (_bins[k] == other._bins[k]) {
+                        same += 1;
+                    }
+                }
+            }
+            return used == 0 ? 1.0 : (double) same / used;
+        }
+
+        /** Return a key for each band of this sketch.  Empty bins take the
+         *  value of the next full one, so that every band has a key. */
+        long[] bands() {
+            long[] bins = _bins.clone();
+            for (int k = 0; k < BINS; k += 1) {
+                for (int step = 1; bins[k] == EMPTY && step < BINS;
+                     step += 1) {
+                    bins[k] = _bins[(k + step) % BINS] == EMPTY ? EMPTY
+                        : mix(_bins[(k + step) % BINS] + step);
+                }
+            }
+            long[] result = new long[BINS / ROWS];
+            for (int band = 0; band < result.length; band += 1) {
+                long key = band;
+                for (int r = 0; r < ROWS; r += 1) {
+                    key = mix(key * 31 + bins[band * ROWS + r]);
+                }
+                result[band] = key;
+            }
+            return result;
+        }
+
+        /** Length of the file in characters. */
+        private final int _length;
+        /** Least segment hash falling in each bin, or EMPTY. */
+        private final long[] _bins;
+        /** Sorted distinct segment hashes, if there are at most SMALL. */
+        private final long[] _segments;
+    }
+
+    /** Return the distinct values of the first N of VALUES, sorted, or
+     *  null if there are more than SMALL. */
+    private static long[] distinct(long[] values, int n) {
+        Arrays.sort(values, 0, n);
+        int k = 0;
+        for (int i = 0; i < n; i += 1) {
+            if (k == 0 || values[i] != values[k - 1]) {
+                values[k] = values[i];
+                k += 1;
+            }
+        }
+        return k <= SMALL ? Arrays.copyOf(values, k) : null;
+    }
+
+    /** Return |A & B| / |A | B| for A and B sorted and distinct. */
+    private static double jaccard(long[] a, long[] b) {
+        int i = 0, j = 0, common = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i += 1;
+            } else if (a[i] > b[j]) {
+                j += 1;
+            } else {
+                common += 1;
+                i += 1;
+                j += 1;
+            }
+        }
+        int union = a.length + b.length - common;
+        return union == 0 ? 1.0 : (double) common / union;
+    }
+
+    /** Return a 64-bit hash of the characters of S from START to END. */
+    private static long hash(String s, int start, int end) {
+        long h = 0xcbf29ce484222325L;
+        for (int k = start; k < end; k += 1) {
+            h = (h ^ s.charAt(k)) * 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    /** Return H with its bits mixed (the splitmix64 finalizer). */
+    private static long mix(long h) {
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        return h ^ (h >>> 31);
+    }
+}
@@ -0,0 +1,125 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+
+/** The write lock of a repository.  A command that changes a repository
+ *  first takes an exclusive operating-system lock on its .gitlet/lock
+ *  file and keeps it until the process exits, so writers take turns and
+ *  a writer that dies releases its lock with it.  Commands that only read
+ *  (log, global-log, find, status and the like) take no lock and never
+ *  wait.  They stay consistent because a writer stores each object before
+ *  any ref names it and replaces the variables file, which holds the refs
+ *  and the stage, by renaming a complete new copy over it: a reader sees
+ *  the snapshot before a write or the one after, never a mixture.  A
+ *  reader that would like to save a cache it computed does so only if it
+ *  can take the lock without waiting (tryAcquire), and releases it as soon
+ *  as the cache is written (release), so a writer that starts during a
+ *  long log or blame does not wait for all of its output.
+ *  @author Daniel Ngo
+ */
+class RepoLock {
+
+    /** Name of the lock file within a .gitlet directory. */
+    static final String LOCK_NAME = "lock";
+
+    /** Take the write lock of this repository, waiting for any other
+     *  writer to finish. */
+    static void acquire() {
+        acquire(Main.GITLET_FOLDER);
+    }
+
+    /** Take the write lock of the repository whose .gitlet directory is
+     *  GITLET, waiting for any other writer to finish. */
+    static void acquire(File gitlet) {
+        lock(gitlet, true);
+    }
+
+    /** Take the write lock of this repository if no other process holds
+     *  it, returning true iff this process now holds it. */
+    static boolean tryAcquire() {
+        return tryAcquire(Main.GITLET_FOLDER);
+    }
+
+    /** As for tryAcquire(), for the repository whose .gitlet directory is
+     *  GITLET. */
+    static boolean tryAcquire(File gitlet) {
+        return lock(gitlet, false);
+    }
+
+    /** Undo a successful tryAcquire() of this repository: release the
+     *  write lock if that call took it, and keep it if this process held
+     *  it already, as a writer does. */
+    static void release() {
+        release(Main.GITLET_FOLDER);
+    }
+
+    /** As for release(), for the repository whose .gitlet directory is
+     *  GITLET. */
+    static synchronized void release(File gitlet) {
+        try {
+            String key = gitlet.getCanonicalPath();
+            Integer count = BRIEF.get(key);
+            if (count == null) {
+                return;
+            } else if (count > 1) {
+                BRIEF.put(key, count - 1);
+                return;
+            }
+            BRIEF.remove(key);
+            FileLock lock = HELD.remove(key);
+            lock.release();
+            lock.channel().close();
+        } catch (IOException excp) {
+            throw Utils.error("Cannot unlock %s: %s", gitlet,
+                    excp.getMessage());
+        }
+    }
+
+    /** Lock GITLET, blocking iff WAIT, and return true iff this process
+     *  holds the lock afterwards.  A lock already held is not taken again,
+     *  which the JVM would refuse; if WAIT, it is kept until exit. */
+    private static synchronized boolean lock(File gitlet, boolean wait) {
+        if (!gitlet.isDirectory()) {
+            return false;
+        }
+        try {
+            String key = gitlet.getCanonicalPath();
+            if (HELD.containsKey(key)) {
+                if (wait) {
+                    BRIEF.remove(key);
+                } else if (BRIEF.containsKey(key)) {
+                    BRIEF.put(key, BRIEF.get(key) + 1);
+                }
+                return true;
+            }
+            FileChannel channel = FileChannel.open(
+                    Utils.join(gitlet, LOCK_NAME).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock lock = wait ? channel.lock() : channel.tryLock();
+            if (lock == null) {
+                channel.close();
+                return false;
+            }
+            HELD.put(key, lock);
+            if (!wait) {
+                BRIEF.put(key, 1);
+            }
+            return true;
+        } catch (IOException excp) {
+            throw Utils.error("Cannot lock %s: %s", gitlet,
+                    excp.getMessage());
+        }
+    }
+
+    /** Locks held by this process, by canonical .gitlet path.  Those taken
+     *  by acquire are never released explicitly; exiting releases them. */
+    private static final HashMap<String, FileLock> HELD = new HashMap<>();
+    /** For each lock of HELD taken by tryAcquire, the number of successful
+     *  tryAcquire calls not yet matched by release. */
+    private static final HashMap<String, Integer> BRIEF = new HashMap<>();
+}
@@ -0,0 +1,132 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** The set of paths materialized in the working directory.  Patterns are
+ *  globs (*.txt, src-?.java, ...), one per line in .gitlet/sparse-checkout;
+ *  without that file every path is included.  Checkout, reset and merge
+ *  write and delete only included files, while commits still carry the
+ *  whole tree, so files left out simply keep the versions they have in
+ *  the head commit.  When every pattern is a plain file name, the files
+ *  are looked up directly rather than matched one by one, so switching
+ *  branches costs time in proportion to the sparse set.
+ *  @author Daniel Ngo
+ */
+class SparseCheckout {
+
+    /** File holding the patterns, one per line. */
+    static final File SPARSE_FILE = Utils.join(Main.GITLET_FOLDER,
+            "sparse-checkout");
+    /** Characters that make a pattern more than a file name. */
+    private static final String GLOB_CHARS = "*?[]{}\\";
+
+    /** A sparse checkout of the paths matching PATTERNS, or of all paths
+     *  if PATTERNS is null. */
+    private SparseCheckout(List<String> patterns) {
+        _patterns = patterns;
+        if (patterns == null) {
+            return;
+        }
+        _literal = true;
+        for (String pattern : patterns) {
+            _matchers.add(FileSystems.getDefault()
+                    .getPathMatcher("glob:" + pattern));
+            for (char c : pattern.toCharArray()) {
+                _literal &= GLOB_CHARS.indexOf(c) < 0;
+            }
+        }
+    }
+
+    /** Return the sparse checkout of this repository. */
+    static SparseCheckout load() {
+        if (!SPARSE_FILE.isFile()) {
+            return new SparseCheckout(null);
+        }
+        String text = Utils.readContentsAsString(SPARSE_FILE);
+        return new SparseCheckout(text.isEmpty() ? List.of()
+                : Arrays.asList(text.split("\n")));
+    }
+
+    /** Return the sparse checkout of the paths matching PATTERNS, or of all
+     *  paths if PATTERNS is null, without making it this repository's. */
+    static SparseCheckout of(List<String> patterns) {
+        return new SparseCheckout(patterns);
+    }
+
+    /** Limit the working directory to PATTERNS from now on. */
+    static void set(List<String> patterns) {
+        StringBuilder text = new StringBuilder();
+        for (String pattern : patterns) {
+            text.append(pattern).append('\n');
+        }
+        Utils.replaceContents(SPARSE_FILE, text.toString());
+    }
+
+    /** Include every path from now on. */
+    static void disable() {
+        SPARSE_FILE.delete();
+    }
+
+    /** Return true iff this checkout includes every path. */
+    boolean isFull() {
+        return _patterns == null;
+    }
+
+    /** Return the patterns, or null if every path is included. */
+    List<String> patterns() {
+        return _patterns;
+    }
+
+    /** Return true iff the file named NAME is included. */
+    boolean includes(String name) {
+        if (_patterns == null) {
+            return true;
+        }
+        for (PathMatcher matcher : _matchers) {
+            if (matcher.matches(Paths.get(name))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return the entries of BLOBS, a map from file names to blob ids,
+     *  whose files are included.  BLOBS itself is returned when every
+     *  path is included. */
+    <V> Map<String, V> select(Map<String, V> blobs) {
+        if (_patterns == null) {
+            return blobs;
+        }
+        HashMap<String, V> result = new HashMap<>();
+        if (_literal) {
+            for (String name : _patterns) {
+                V blob = blobs.get(name);
+                if (blob != null) {
+                    result.put(name, blob);
+                }
+            }
+            return result;
+        }
+        for (Map.Entry<String, V> entry : blobs.entrySet()) {
+            if (includes(entry.getKey())) {
+                result.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    /** The patterns, or null for a full checkout. */
+    private final List<String> _patterns;
+    /** A matcher for each pattern. */
+    private final ArrayList<PathMatcher> _matchers = new ArrayList<>();
+    /** True iff every pattern is a plain file name. */
+    private boolean _literal;
+}
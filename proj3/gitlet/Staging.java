@@ -1,41 +1,90 @@
 package gitlet;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.HashMap;
+import java.util.Map;
 
 public class Staging implements Serializable {
+    /** Fixed so that repositories written by earlier versions
+     * stay readable as methods are added. */
+    private static final long serialVersionUID = 5984816477827192179L;
     /** Directory for the stage. */
     static final File STAGING_FOLDER = Utils.join(Main.GITLET_FOLDER,
             "staging");
     /** Hashmap of all staged files. */
-    private HashMap<String, String> stagedstages;
-    /** Hashmap of all removed files. */
-    private HashMap<String, String> removedstages;
+    private transient HashMap<String, ObjectId> staged;
+    /** Hashmap of all removed files, to their blob ids in the head commit
+     * (null for entries written before those were recorded). */
+    private transient HashMap<String, ObjectId> removed;
+    /** The stage as hex ids, as the variables file stores it.  Only set in
+     * the copy that writeReplace makes for writing. */
+    private HashMap<String, String> stagedstages, removedstages;
 
     public Staging() {
-        stagedstages = new HashMap<String, String>();
-        removedstages = new HashMap<String, String>();
+        staged = new HashMap<String, ObjectId>();
+        removed = new HashMap<String, ObjectId>();
     }
 
-    public HashMap<String, String> getStaged() {
-        return stagedstages;
+    /** Returns a copy of STAGE in the form the variables file stores.
+     * @param stage stage to copy */
+    private Staging(Staging stage) {
+        stagedstages = hex(stage.staged);
+        removedstages = hex(stage.removed);
     }
 
-    public HashMap<String, String> getRemoved() {
-        return removedstages;
+    /** Writes the hex form of this stage in its place. */
+    private Object writeReplace() {
+        return new Staging(this);
     }
 
-    public void addstaged(String filename, String hashid) {
-        stagedstages.put(filename, hashid);
+    /** Reads a stage in the form the variables file stores.
+     * @param in stream to read from */
+    private void readObject(ObjectInputStream in)
+        throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        staged = new HashMap<String, ObjectId>();
+        for (Map.Entry<String, String> e : stagedstages.entrySet()) {
+            staged.put(e.getKey(), ObjectId.parse(e.getValue()));
+        }
+        removed = new HashMap<String, ObjectId>();
+        for (Map.Entry<String, String> e : removedstages.entrySet()) {
+            removed.put(e.getKey(), ObjectId.parse(e.getValue()));
+        }
+        stagedstages = removedstages = null;
     }
 
-    public void addremoved(String filename, String hashid) {
-        removedstages.put(filename, hashid);
+    /** Returns IDS with its ids as hex digits.
+     * @param ids map to convert */
+    private static HashMap<String, String> hex(Map<String, ObjectId> ids) {
+        HashMap<String, String> result = new HashMap<String, String>();
+        for (Map.Entry<String, ObjectId> e : ids.entrySet()) {
+            result.put(e.getKey(),
+                       e.getValue() == null ? null : e.getValue().name());
+        }
+        return result;
+    }
+
+    public HashMap<String, ObjectId> getStaged() {
+        return staged;
+    }
+
+    public HashMap<String, ObjectId> getRemoved() {
+        return removed;
+    }
+
+    public void addstaged(String filename, ObjectId hashid) {
+        staged.put(filename, hashid);
+    }
+
+    public void addremoved(String filename, ObjectId hashid) {
+        removed.put(filename, hashid);
     }
 
     public void clearstages() {
-        stagedstages.clear();
-        removedstages.clear();
+        staged.clear();
+        removed.clear();
     }
 }
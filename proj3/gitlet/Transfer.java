@@ -0,0 +1,311 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+
+/** Copies the commits and blobs one repository is missing from another.
+ *  The sender walks its history from the wanted commits and stops at
+ *  commits the receiver already has, so only the difference is sent.  The
+ *  objects then travel as one stream of records (kind, id, length, bytes),
+ *  written by a sender thread and unpacked by the receiver as it arrives,
+ *  rather than as one file copy per object; the chunks of a chunked blob
+ *  travel just before it.  When the sender has
+ *  Reachability bitmaps, enumerate replaces the walk with a bitmap
+ *  difference.
+ *  @author Daniel Ngo
+ */
+class Transfer {
+
+    /** Record kinds in the object stream. */
+    private static final byte BLOB = 'b', COMMIT = 'c', CHUNK = 'k',
+        END = 0;
+    /** Size of the pipe between sender and receiver. */
+    private static final int PIPE_SIZE = 1 << 20;
+
+    /** A transfer from the repository whose .gitlet directory is FROM to
+     *  the one whose .gitlet directory is TO. */
+    Transfer(File from, File to) {
+        _from = from;
+        _to = to;
+    }
+
+    /** Work out which commits and blobs reachable from the commits with
+     *  ids WANTS are missing from the receiver.  Return the missing
+     *  commits, parents before children. */
+    List<ObjectId> negotiate(Collection<ObjectId> wants) {
+        HashSet<ObjectId> visited = new HashSet<>();
+        HashSet<ObjectId> seenblobs = new HashSet<>();
+        ArrayDeque<ObjectId[]> work = new ArrayDeque<>();
+        for (ObjectId want : wants) {
+            work.push(new ObjectId[] {want, null});
+        }
+        while (!work.isEmpty()) {
+            ObjectId[] item = work.pop();
+            ObjectId id = item[0];
+            if (item[1] != null) {
+                _commits.add(id);
+                continue;
+            }
+            if (id == null || !visited.add(id) || has(COMMIT, id)) {
+                continue;
+            }
+            Commit commit = readCommit(id);
+            for (ObjectId blob : commit.getBlob().values()) {
+                if (!_skipblobs && seenblobs.add(blob) && !has(BLOB, blob)) {
+                    _blobs.add(blob);
+                }
+            }
+            work.push(new ObjectId[] {id, id});
+            work.push(new ObjectId[] {commit.getSecondparent(), null});
+            work.push(new ObjectId[] {commit.getParent(), null});
+        }
+        return _commits;
+    }
+
+    /** Work out which of the objects in OBJECTS, a bitmap over the
+     *  positions of INDEX, are missing from the receiver, as negotiate does
+     *  but without walking the history shared with the receiver.  Return
+     *  the missing commits, parents before children. */
+    List<ObjectId> enumerate(Reachability index, Bitmap objects) {
+        HashSet<ObjectId> missing = new HashSet<>();
+        objects.forEach(pos -> {
+            ObjectId id = index.id(pos);
+            if (index.isCommit(pos)) {
+                if (!has(COMMIT, id)) {
+                    missing.add(id);
+                }
+            } else if (!has(BLOB, id)) {
+                _blobs.add(id);
+            }
+        });
+        HashSet<ObjectId> visited = new HashSet<>();
+        ArrayDeque<ObjectId[]> work = new ArrayDeque<>();
+        for (ObjectId id : missing) {
+            work.push(new ObjectId[] {id, null});
+        }
+        while (!work.isEmpty()) {
+            ObjectId[] item = work.pop();
+            ObjectId id = item[0];
+            if (item[1] != null) {
+                _commits.add(id);
+            } else if (missing.contains(id) && visited.add(id)) {
+                Commit commit = readCommit(id);
+                work.push(new ObjectId[] {id, id});
+                work.push(new ObjectId[] {commit.getSecondparent(), null});
+                work.push(new ObjectId[] {commit.getParent(), null});
+            }
+        }
+        return _commits;
+    }
+
+    /** Leave blobs out of the objects negotiate finds, as for a partial
+     *  clone. */
+    void skipBlobs() {
+        _skipblobs = true;
+    }
+
+    /** Add the blobs with ids IDS that the receiver lacks to the objects to
+     *  send. */
+    void addBlobs(Collection<ObjectId> ids) {
+        for (ObjectId id : ids) {
+            if (!has(BLOB, id)) {
+                _blobs.add(id);
+            }
+        }
+    }
+
+    /** Send the objects found by negotiate, blobs first so that no commit
+     *  arrives before the blobs it refers to. */
+    void run() {
+        if (_from.equals(Main.GITLET_FOLDER)) {
+            Promisor.prefetch(_blobs);
+        }
+        PipedInputStream pipein = new PipedInputStream(PIPE_SIZE);
+        Thread sender;
+        IOException[] failure = new IOException[1];
+        try {
+            PipedOutputStream pipeout = new PipedOutputStream(pipein);
+            sender = new Thread(() -> {
+                try (OutputStream out = pipeout) {
+                    send(out);
+                } catch (IOException excp) {
+                    failure[0] = excp;
+                }
+            });
+            sender.start();
+            receive(pipein);
+            sender.join();
+        } catch (IOException | InterruptedException excp) {
+            throw Utils.error("Transfer failed: %s", excp.getMessage());
+        }
+        if (failure[0] != null) {
+            throw Utils.error("Transfer failed: %s", failure[0].getMessage());
+        }
+    }
+
+    /** Hard-link every commit, blob and chunk file of the repository whose
+     *  .gitlet directory is FROM into the one whose .gitlet directory is
+     *  TO, copying a file instead where a link cannot be made (e.g. across
+     *  file systems).  Object files are never modified once written, so
+     *  the two repositories can safely share them.  Return the number of
+     *  files that had to be copied. */
+    static int link(File from, File to) {
+        int copied = 0;
+        for (byte kind : new byte[] {COMMIT, BLOB, CHUNK}) {
+            List<String> names = Utils.plainFilenamesIn(
+                    objectFile(from, kind, ""));
+            if (names == null) {
+                continue;
+            }
+            objectFile(to, kind, "").mkdirs();
+            for (String id : names) {
+                Path source = objectFile(from, kind, id).toPath();
+                Path target = objectFile(to, kind, id).toPath();
+                if (Files.exists(target)) {
+                    continue;
+                }
+                try {
+                    Files.createLink(target, source);
+                } catch (IOException | UnsupportedOperationException excp) {
+                    try {
+                        Files.copy(source, target);
+                        copied += 1;
+                    } catch (IOException copyexcp) {
+                        throw Utils.error("Cannot copy %s: %s", id,
+                                copyexcp.getMessage());
+                    }
+                }
+            }
+        }
+        return copied;
+    }
+
+    /** Return the number of commits sent. */
+    int commitCount() {
+        return _commits.size();
+    }
+
+    /** Return the number of blobs sent. */
+    int blobCount() {
+        return _blobs.size();
+    }
+
+    /** Return the number of object bytes received. */
+    long bytes() {
+        return _bytes;
+    }
+
+    /** Write every object to be sent to OUT. */
+    private void send(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(
+                new BufferedOutputStream(out, PIPE_SIZE));
+        HashSet<String> sentchunks = new HashSet<>();
+        for (ObjectId id : _blobs) {
+            File blob = objectFile(_from, BLOB, id.name());
+            if (ChunkStore.isManifest(blob)) {
+                for (String chunk
+                         : ChunkStore.chunks(Utils.readContents(blob))) {
+                    if (sentchunks.add(chunk)
+                        && !objectFile(_to, CHUNK, chunk).exists()) {
+                        sendObject(data, CHUNK, chunk);
+                    }
+                }
+            }
+            sendObject(data, BLOB, id.name());
+        }
+        for (ObjectId id : _commits) {
+            sendObject(data, COMMIT, id.name());
+        }
+        data.writeByte(END);
+        data.flush();
+    }
+
+    /** Write the object of kind KIND whose file is named ID to OUT. */
+    private void sendObject(DataOutputStream out, byte kind, String id)
+        throws IOException {
+        byte[] contents = Utils.readContents(objectFile(_from, kind, id));
+        out.writeByte(kind);
+        out.writeUTF(id);
+        out.writeInt(contents.length);
+        out.write(contents);
+    }
+
+    /** Read objects from IN and store them in the receiving repository
+     *  until the end record. */
+    private void receive(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(
+                new BufferedInputStream(in, PIPE_SIZE));
+        try {
+            while (true) {
+                byte kind = data.readByte();
+                if (kind == END) {
+                    return;
+                }
+                String id = data.readUTF();
+                byte[] contents = new byte[data.readInt()];
+                data.readFully(contents);
+                _bytes += contents.length;
+                File file = objectFile(_to, kind, id);
+                if (!file.exists()) {
+                    file.getParentFile().mkdirs();
+                    Utils.replaceContents(file, contents);
+                }
+            }
+        } catch (EOFException excp) {
+            throw new IOException("object stream ended early");
+        }
+    }
+
+    /** Return true iff the receiver already has the object of kind KIND
+     *  with id ID. */
+    private boolean has(byte kind, ObjectId id) {
+        return objectFile(_to, kind, id.name()).exists();
+    }
+
+    /** Return the sender's commit with id ID. */
+    private Commit readCommit(ObjectId id) {
+        if (_from.equals(Main.GITLET_FOLDER)) {
+            return ObjectCache.readCommit(id);
+        }
+        return Utils.readObject(objectFile(_from, COMMIT, id.name()),
+                Commit.class);
+    }
+
+    /** Return the file holding the object of kind KIND whose file is named
+     *  ID in the repository whose .gitlet directory is GITLET. */
+    private static File objectFile(File gitlet, byte kind, String id) {
+        if (kind == COMMIT) {
+            return Utils.join(gitlet, Commit.COMMIT_FOLDER.getName(), id);
+        } else if (kind == CHUNK) {
+            return Utils.join(gitlet, ChunkStore.CHUNK_FOLDER.getName(), id);
+        }
+        return Utils.join(gitlet, Blobs.BLOB_FOLDER.getName(), id);
+    }
+
+    /** The .gitlet directories of the sender and receiver. */
+    private final File _from, _to;
+    /** Commits to send, parents first. */
+    private List<ObjectId> _commits = new ArrayList<>();
+    /** Blobs to send. */
+    private List<ObjectId> _blobs = new ArrayList<>();
+    /** Number of object bytes received. */
+    private long _bytes;
+    /** True iff negotiate should leave out blobs. */
+    private boolean _skipblobs;
+}
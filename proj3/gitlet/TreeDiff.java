@@ -0,0 +1,235 @@
+package gitlet;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/** The differences between two trees of files, printed as unified diffs.
+ *  The changed files are found by one walk over the two sorted listings
+ *  (see FileList), so an unchanged file costs only its entry, and only
+ *  changed files are read.  Their line diffs are computed across all cores
+ *  in the common ForkJoin pool, a batch at a time, and printed in order of
+ *  file name, so output is the same as that of a sequential loop.  Lines
+ *  shared at the start and end of a file are matched directly, so the
+ *  quadratic Diff only sees the part that changed.
+ *  @author Daniel Ngo
+ */
+class TreeDiff {
+
+    /** Number of unchanged lines shown around each change. */
+    static final int CONTEXT = 3;
+
+    /** Follows the last line of a file that does not end in a newline,
+     *  as unified diffs mark it. */
+    static final String NO_NEWLINE = "\n\\ No newline at end of file";
+
+    /** Number of files diffed per batch.  Bounds the memory held by diffs
+     *  that are waiting to be printed. */
+    static final int BATCH_SIZE = 256;
+
+    /** One changed file. */
+    private static final class Change {
+        /** The file named PATH changed from blob BEFORE to blob AFTER,
+         *  either null if the file is absent on that side. */
+        Change(String path, ObjectId before, ObjectId after) {
+            _path = path;
+            _before = before;
+            _after = after;
+        }
+
+        /** Name of the file. */
+        private final String _path;
+        /** Blob ids of the file on each side, or null. */
+        private final ObjectId _before, _after;
+    }
+
+    /** A diff from the files of BEFORE to those of AFTER.  Unless WORKTREE
+     *  is null, AFTER is the working directory, and the contents of the
+     *  files WORKTREE includes are read from there, since their ids need
+     *  not be stored blobs; files it leaves out are read from the store. */
+    TreeDiff(FileList before, FileList after, SparseCheckout worktree) {
+        _before = before;
+        _after = after;
+        _worktree = worktree;
+    }
+
+    /** Print the diff to OUT. */
+    void print(PrintWriter out) {
+        ArrayList<Change> changes = new ArrayList<>();
+        FileList.walk(_before, _after, (path, before, after, unused) -> {
+            if (before == null || !before.equals(after)) {
+                changes.add(new Change(PathTable.path(path), before, after));
+            }
+        });
+        changes.sort(Comparator.comparing(change -> change._path));
+        ArrayList<ObjectId> needed = new ArrayList<>();
+        for (Change change : changes) {
+            if (change._before != null) {
+                needed.add(change._before);
+            }
+            if (change._after != null && !ondisk(change._path)) {
+                needed.add(change._after);
+            }
+        }
+        Promisor.prefetch(needed);
+        for (int start = 0; start < changes.size(); start += BATCH_SIZE) {
+            List<Change> batch = changes.subList(start,
+                    Math.min(changes.size(), start + BATCH_SIZE));
+            String[] diffs = batch.parallelStream()
+                .map(this::format)
+                .toArray(String[]::new);
+            for (String diff : diffs) {
+                out.print(diff);
+            }
+        }
+    }
+
+    /** Return the unified diff of CHANGE, headers included. */
+    private String format(Change change) {
+        StringBuilder out = new StringBuilder();
+        String path = change._path;
+        out.append("diff --git a/").append(path).append(" b/").append(path)
+            .append('\n');
+        out.append("--- ")
+            .append(change._before == null ? "/dev/null" : "a/" + path)
+            .append('\n');
+        out.append("+++ ")
+            .append(change._after == null ? "/dev/null" : "b/" + path)
+            .append('\n');
+        List<String> before = lines(contents(change._before, path, false));
+        List<String> after = lines(contents(change._after, path,
+                ondisk(path)));
+        hunks(before, after, out);
+        return out.toString();
+    }
+
+    /** Return true iff the newer contents of the file PATH are read from
+     *  the working directory. */
+    private boolean ondisk(String path) {
+        return _worktree != null && _worktree.includes(path);
+    }
+
+    /** Return the contents of the file PATH with blob id ID, or "" if ID
+     *  is null.  If WORKTREE, the file is read from the working directory;
+     *  otherwise the blob is read straight from disk rather than through
+     *  ObjectCache, so that one diff does not flush everything else out of
+     *  the cache. */
+    private static String contents(ObjectId id, String path,
+                                   boolean worktree) {
+        if (id == null) {
+            return "";
+        } else if (worktree) {
+            return Utils.readContentsAsString(Utils.join(Main.CWD, path));
+        }
+        return ChunkStore.read(Utils.join(Blobs.BLOB_FOLDER, id.name()));
+    }
+
+    /** Return the lines of CONTENT, without their line terminators.  A
+     *  last line with no terminator carries NO_NEWLINE, so that it differs
+     *  from the same line with one, and the marker is printed after it. */
+    static List<String> lines(String content) {
+        if (content.isEmpty()) {
+            return List.of();
+        }
+        List<String> result = Arrays.asList(content.split("\n", -1));
+        if (content.endsWith("\n")) {
+            return result.subList(0, result.size() - 1);
+        }
+        int last = result.size() - 1;
+        result.set(last, result.get(last) + NO_NEWLINE);
+        return result;
+    }
+
+    /** Append to OUT the hunks that turn the lines BEFORE into AFTER, each
+     *  with up to CONTEXT unchanged lines around its changes.  Changes
+     *  closer than 2 * CONTEXT lines share a hunk. */
+    private static void hunks(List<String> before, List<String> after,
+                              StringBuilder out) {
+        int[] edits = edits(before, after);
+        int k = 0;
+        while (k < edits.length) {
+            int last = k;
+            while (last + 4 < edits.length
+                   && edits[last + 4] - edits[last] - edits[last + 1]
+                       <= 2 * CONTEXT) {
+                last += 4;
+            }
+            int start = Math.max(0, edits[k] - CONTEXT);
+            int end = Math.min(before.size(),
+                    edits[last] + edits[last + 1] + CONTEXT);
+            int afterstart = edits[k + 2] - (edits[k] - start);
+            int afterend = edits[last + 2] + edits[last + 3]
+                + end - edits[last] - edits[last + 1];
+            out.append("@@ -").append(range(start, end - start))
+                .append(" +").append(range(afterstart, afterend - afterstart))
+                .append(" @@\n");
+            int i = start;
+            for (int e = k; e <= last; e += 4) {
+                append(out, ' ', before, i, edits[e]);
+                append(out, '-', before, edits[e], edits[e] + edits[e + 1]);
+                append(out, '+', after, edits[e + 2],
+                        edits[e + 2] + edits[e + 3]);
+                i = edits[e] + edits[e + 1];
+            }
+            append(out, ' ', before, i, end);
+            k = last + 4;
+        }
+    }
+
+    /** Append to OUT lines FROM up to TO of LINES, each after MARK. */
+    private static void append(StringBuilder out, char mark,
+                               List<String> lines, int from, int to) {
+        for (int i = from; i < to; i += 1) {
+            out.append(mark).append(lines.get(i)).append('\n');
+        }
+    }
+
+    /** Return the hunk header range of the COUNT lines from line START,
+     *  0-based, in the form unified diffs use. */
+    private static String range(int start, int count) {
+        if (count == 1) {
+            return Integer.toString(start + 1);
+        }
+        return (count == 0 ? start : start + 1) + "," + count;
+    }
+
+    /** Return the edits that turn BEFORE into AFTER, in the form of
+     *  Diff.diffs. */
+    private static int[] edits(List<String> before, List<String> after) {
+        int n = before.size(), m = after.size();
+        int prefix = 0;
+        while (prefix < n && prefix < m
+               && before.get(prefix).equals(after.get(prefix))) {
+            prefix += 1;
+        }
+        int suffix = 0;
+        while (suffix < n - prefix && suffix < m - prefix
+               && before.get(n - 1 - suffix)
+                   .equals(after.get(m - 1 - suffix))) {
+            suffix += 1;
+        }
+        if (prefix + suffix == n && prefix + suffix == m) {
+            return new int[0];
+        } else if (prefix + suffix == n || prefix + suffix == m) {
+            return new int[] {prefix, n - prefix - suffix,
+                              prefix, m - prefix - suffix};
+        }
+        Diff diff = new Diff();
+        diff.setSequences(before.subList(prefix, n - suffix),
+                after.subList(prefix, m - suffix));
+        int[] result = diff.diffs();
+        for (int k = 0; k < result.length; k += 4) {
+            result[k] += prefix;
+            result[k + 2] += prefix;
+        }
+        return result;
+    }
+
+    /** Files on each side of the diff. */
+    private final FileList _before, _after;
+    /** The files of _after read from the working directory, or null if
+     *  none are. */
+    private final SparseCheckout _worktree;
+}
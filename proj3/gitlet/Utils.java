@@ -3,6 +3,7 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -10,14 +11,14 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.io.Serializable;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.Formatter;
 import java.util.List;
 
 
@@ -32,26 +33,13 @@ class Utils {
     static final int UID_LENGTH = 40;
 
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
-     *  be any mixture of byte arrays and Strings. */
+     *  be any mixture of byte arrays and Strings.  Uses this thread's
+     *  reusable digester. */
     static String sha1(Object... vals) {
         try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            for (Object val : vals) {
-                if (val instanceof byte[]) {
-                    md.update((byte[]) val);
-                } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
-                } else {
-                    throw new IllegalArgumentException("improper type to sha1");
-                }
-            }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
-            }
-            return result.toString();
-        } catch (NoSuchAlgorithmException excp) {
-            throw new IllegalArgumentException("System does not support SHA-1");
+            return Hashing.SHA1.hash(vals).name();
+        } catch (IllegalArgumentException excp) {
+            throw new IllegalArgumentException("improper type to sha1");
         }
     }
 
@@ -155,6 +143,32 @@ class Utils {
         writeContents(file, serialize(obj));
     }
 
+    /** As for writeContents, but the bytes go to a temporary file that is
+     *  then renamed over FILE, so that a concurrent reader sees either the
+     *  old contents of FILE or the new, never a mixture. */
+    static void replaceContents(File file, Object... contents) {
+        File temp = null;
+        try {
+            temp = File.createTempFile(file.getName(), ".tmp",
+                    file.getAbsoluteFile().getParentFile());
+            writeContents(temp, contents);
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    /** As for writeObject, but replacing FILE atomically. */
+    static void replaceObject(File file, Serializable obj) {
+        replaceContents(file, serialize(obj));
+    }
+
     /* DIRECTORIES */
 
     /** Filter out all but plain files. */
@@ -234,4 +248,14 @@ class Utils {
         System.out.printf(msg, args);
         System.out.println();
     }
+
+    /** Size in characters of the buffer used by bufferedOutput. */
+    static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+    /** Return a writer on the standard output with a large buffer, for
+     *  commands that print many lines.  The caller must flush it. */
+    static PrintWriter bufferedOutput() {
+        return new PrintWriter(new BufferedWriter(
+            new OutputStreamWriter(System.out), OUTPUT_BUFFER_SIZE));
+    }
 }